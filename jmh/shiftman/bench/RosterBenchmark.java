@@ -0,0 +1,150 @@
+package shiftman.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import shiftman.server.RosterManager;
+import shiftman.server.Shifts;
+import shiftman.server.TimePeriod;
+import shiftman.server.Workers;
+import shiftman.server.WeeklyRoster.Days;
+
+/**
+ * JMH benchmarks of the main roster operations over rosters built by RosterGenerator. The roster
+ * shape is set by the staffCount, shiftsPerDay, workersPerShift and skew parameters, and
+ * snapshotReads selects the roster's read mode. The build configures throughput and sampled
+ * latency modes, whose output includes latency percentiles, and the gc profiler, which reports
+ * bytes allocated per operation.
+ *
+ * <p>Run with: gradle jmh, or java -jar build/libs/shiftman-jmh.jar [JMH options], for example
+ * -p staffCount=5000 to change a parameter or RosterBenchmark.findWorker to run one benchmark.
+ *
+ * <p>Each thread has its own state, so that the position each benchmark cycles through its
+ * workers and shifts from is not shared. The roster itself is only read.
+ */
+@State(Scope.Thread)
+public class RosterBenchmark {
+	@Param({ "500", "5000" })
+	public int staffCount;
+
+	@Param({ "48" })
+	public int shiftsPerDay;
+
+	@Param({ "4" })
+	public int workersPerShift;
+
+	@Param({ "1.0" })
+	public double skew;
+
+	@Param({ "false" })
+	public boolean snapshotReads;
+
+	private RosterManager _roster;
+	private Workers _staff;
+	private String[] _givenNames;
+	private String[] _familyNames;
+	private String[] _fullNames;
+	private String[] _starts;
+	private String[] _ends;
+	private TimePeriod _allDay;
+	private Shifts _shifts;
+	private int _nextWorker;
+	private int _nextShift;
+
+	/**
+	 * Builds the roster, a separate staff list and the names and times the
+	 * benchmarks cycle through, so that no benchmark builds strings as it runs.
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		RosterGenerator generator = new RosterGenerator(staffCount, shiftsPerDay, workersPerShift, skew, 42);
+		_roster = generator.build(snapshotReads, false);
+		_staff = new Workers();
+		_givenNames = new String[staffCount];
+		_familyNames = new String[staffCount];
+		_fullNames = new String[staffCount];
+		for (int i = 0; i < staffCount; i++) {
+			_givenNames[i] = generator.givenName(i);
+			_familyNames[i] = generator.familyName(i);
+			_fullNames[i] = _givenNames[i] + " " + _familyNames[i];
+			_staff.addWorker(_givenNames[i], _familyNames[i]);
+		}
+		_starts = new String[shiftsPerDay];
+		_ends = new String[shiftsPerDay];
+		for (int i = 0; i < shiftsPerDay; i++) {
+			_starts[i] = generator.startTime(Days.Monday, i);
+			_ends[i] = generator.endTime(Days.Monday, i);
+		}
+		_allDay = new TimePeriod();
+		_allDay.setTimes("00:00", "23:59");
+		_shifts = new Shifts();
+	}
+
+	/**
+	 * Returns the index of the next worker to look up, cycling through the staff.
+	 */
+	private int nextWorker() {
+		int w = _nextWorker;
+		_nextWorker = w + 1 == staffCount ? 0 : w + 1;
+		return w;
+	}
+
+	/**
+	 * Adds the next of a day's shifts to a Shifts collection, starting a new
+	 * collection once the day is full.
+	 */
+	@Benchmark
+	public void addShift(Blackhole blackhole) throws Exception {
+		if (_nextShift == shiftsPerDay) {
+			_shifts = new Shifts();
+			_nextShift = 0;
+		}
+		int shift = _nextShift++;
+		blackhole.consume(_shifts.addShift("Monday", _starts[shift], _ends[shift], "1", _allDay));
+	}
+
+	@Benchmark
+	public void findWorker(Blackhole blackhole) {
+		int w = nextWorker();
+		blackhole.consume(_staff.findWorker(_givenNames[w], _familyNames[w]));
+	}
+
+	@Benchmark
+	public void getRosterForWorker(Blackhole blackhole) {
+		blackhole.consume(_roster.getRosterForWorker(_fullNames[nextWorker()]));
+	}
+
+	@Benchmark
+	public void getShiftsManagedBy(Blackhole blackhole) {
+		blackhole.consume(_roster.getShiftsManagedBy(_fullNames[nextWorker()]));
+	}
+
+	@Benchmark
+	public void understaffedShifts(Blackhole blackhole) {
+		blackhole.consume(_roster.understaffedShifts());
+	}
+
+	@Benchmark
+	public void overStaffedShifts(Blackhole blackhole) {
+		blackhole.consume(_roster.overStaffedShifts());
+	}
+
+	@Benchmark
+	public void shiftsWithoutManagers(Blackhole blackhole) {
+		blackhole.consume(_roster.shiftsWithoutManagers());
+	}
+
+	@Benchmark
+	public void reportRosterIssues(Blackhole blackhole) {
+		blackhole.consume(_roster.reportRosterIssues());
+	}
+
+	@Benchmark
+	public void getUnassignedStaff(Blackhole blackhole) {
+		blackhole.consume(_roster.getUnassignedStaff());
+	}
+}
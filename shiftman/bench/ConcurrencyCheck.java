@@ -0,0 +1,145 @@
+package shiftman.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import shiftman.server.ShiftMan;
+import shiftman.server.ShiftManServer;
+import shiftman.server.WeeklyRoster.Days;
+
+/**
+ * Checks that concurrent callers of one ShiftManServer do not lose assignments. Every day gets
+ * one shift per hour, and each thread assigns its share of the staff to one shift on every day,
+ * interleaving reads of the staffing issues and day rosters. Once all threads finish, every
+ * worker's roster must hold exactly one shift per day and no worker may be left unassigned.
+ *
+ * <p>Run with: java shiftman.bench.ConcurrencyCheck [threads=N] [staff=N] [snapshot=true|false].
+ * Exits with status 1, after printing the counts, if any assignment was lost.
+ */
+public class ConcurrencyCheck {
+	private static final int SHIFTS_PER_DAY = 23;
+
+	private final ShiftMan _server;
+	private final int _threads;
+	private final int _staff;
+
+	/**
+	 * Creates a check of the provided server, which must not yet have a roster,
+	 * assigning the provided number of staff from the provided number of threads.
+	 */
+	public ConcurrencyCheck(ShiftMan server, int threads, int staff) {
+		_server = server;
+		_threads = threads;
+		_staff = staff;
+	}
+
+	/**
+	 * Creates the roster, runs the threads and returns the number of shifts found
+	 * in all workers' rosters afterwards.
+	 */
+	public int run() throws Exception {
+		_server.newRoster("Concurrency");
+		for (Days d : Days.values()) {
+			_server.setWorkingHours(d.name(), "00:00", "23:59");
+			for (int h = 0; h < SHIFTS_PER_DAY; h++) {
+				_server.addShift(d.name(), startTime(h), endTime(h), "1");
+			}
+		}
+		for (int i = 0; i < _staff; i++) {
+			_server.registerStaff(givenName(i), familyName(i));
+		}
+		ExecutorService threads = Executors.newFixedThreadPool(_threads);
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int t = 0; t < _threads; t++) {
+				final int first = t;
+				results.add(threads.submit(new Runnable() {
+					public void run() {
+						assignEvery(first);
+					}
+				}));
+			}
+			for (Future<?> f : results) {
+				f.get();
+			}
+		} finally {
+			threads.shutdown();
+		}
+		int assigned = 0;
+		for (int i = 0; i < _staff; i++) {
+			List<String> roster = _server.getRosterForWorker(givenName(i) + " " + familyName(i));
+			assigned += Math.max(0, roster.size() - 1);
+		}
+		return assigned;
+	}
+
+	/**
+	 * Assigns every worker whose index is the provided first index plus a whole
+	 * number of thread counts to one shift on every day.
+	 */
+	private void assignEvery(int first) {
+		Days[] days = Days.values();
+		for (int i = first; i < _staff; i += _threads) {
+			int hour = i % SHIFTS_PER_DAY;
+			for (Days d : days) {
+				String result = _server.assignStaff(d.name(), startTime(hour), endTime(hour), givenName(i),
+						familyName(i), false);
+				if (!result.isEmpty()) {
+					throw new IllegalStateException(result);
+				}
+			}
+			_server.understaffedShifts();
+			_server.getRosterForDay(days[i % days.length].name());
+		}
+	}
+
+	private static String startTime(int hour) {
+		return String.format("%02d:00", hour);
+	}
+
+	private static String endTime(int hour) {
+		return String.format("%02d:30", hour);
+	}
+
+	private static String givenName(int i) {
+		return "Given" + i;
+	}
+
+	private static String familyName(int i) {
+		return "Family" + i;
+	}
+
+	/**
+	 * Parses name=value arguments and runs the check.
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = 16;
+		int staff = 400;
+		boolean snapshot = false;
+		for (String arg : args) {
+			String[] pair = arg.split("=", 2);
+			if (pair.length != 2) {
+				throw new IllegalArgumentException("Expected name=value but got: " + arg);
+			} else if (pair[0].equals("threads")) {
+				threads = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("staff")) {
+				staff = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("snapshot")) {
+				snapshot = Boolean.parseBoolean(pair[1]);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + pair[0]);
+			}
+		}
+		ShiftManServer server = new ShiftManServer(snapshot);
+		int assigned = new ConcurrencyCheck(server, threads, staff).run();
+		int expected = staff * Days.values().length;
+		int unassigned = server.getUnassignedStaff().size();
+		System.out.println("assignments=" + assigned + " expected=" + expected + " unassigned=" + unassigned);
+		if (assigned != expected || unassigned != 0) {
+			System.exit(1);
+		}
+	}
+}
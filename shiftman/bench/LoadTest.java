@@ -0,0 +1,401 @@
+package shiftman.bench;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import shiftman.server.RequestExecutors;
+import shiftman.server.RosterLog;
+import shiftman.server.RosterManager;
+import shiftman.server.ShiftMan;
+import shiftman.server.ShiftManClient;
+import shiftman.server.ShiftManEndpoint;
+import shiftman.server.ShiftManServer;
+import shiftman.server.WeeklyRoster;
+import shiftman.server.WeeklyRoster.Days;
+
+/**
+ * Drives a ShiftManServer from many threads with a mix of reads and writes, and reports the
+ * throughput and latency percentiles of each ShiftMan method.
+ *
+ * <p>The server starts from a generated roster in which every other shift of each day has been
+ * added and filled. Writes assign popular staff to random shifts, add the missing shifts, register
+ * new staff and reset working hours; reads cover every query in the interface. Workers are picked
+ * with the generator's skew, so popular workers' rosters are read and written far more often.
+ *
+ * <p>Run with: java shiftman.bench.LoadTest [threads=N] [ops=N] [writes=P] [staff=N] [shifts=N]
+ * [perShift=N] [skew=X] [snapshot=true|false] [connections=N], where ops is the number of calls
+ * made by each thread and writes is the percentage of calls which are writes. If connections is
+ * above 0, the server is put behind a ShiftManEndpoint on the loopback interface and the threads
+ * share that many ShiftManClient connections to it, pipelining their calls.
+ *
+ * <p>Calls made through the endpoint run on the executor chosen by executor=fixed|perTask, a fixed
+ * pool of pool=N platform threads or one virtual thread per task where the runtime has them, and
+ * otherwise a pool of at most RequestExecutors.DEFAULT_FALLBACK_THREADS platform threads.
+ * fanOut=true also fans queries over the week out on a second executor of the same kind, and
+ * fanOut=forkJoin fans them out on the common ForkJoinPool instead, once the roster holds
+ * threshold=N shifts. log=true makes every write wait for a RosterLog commit. Comparing the two executors with
+ * log=true and many connections and threads shows the cost of calls pinning pool threads while
+ * they wait for locks and commits, for example:
+ * <pre>
+ * java shiftman.bench.LoadTest connections=1000 threads=1000 ops=200 writes=20 log=true executor=fixed pool=8
+ * java shiftman.bench.LoadTest connections=1000 threads=1000 ops=200 writes=20 log=true executor=perTask
+ * </pre>
+ */
+public class LoadTest {
+	private static final String[] METHODS = { "assignStaff", "addShift", "registerStaff", "setWorkingHours",
+			"getRosterForDay", "getRosterForWorker", "getShiftsManagedBy", "understaffedShifts",
+			"overstaffedShifts", "shiftsWithoutManagers", "getRegisteredStaff", "getUnassignedStaff",
+			"displayRoster", "reportRosterIssues" };
+	private static final int WRITE_METHODS = 4;
+	private static final Days[] DAYS = Days.values();
+
+	private final ShiftMan[] _servers;
+	private final RosterGenerator _generator;
+	private final int _threads;
+	private final int _ops;
+	private final int _writePercent;
+
+	/**
+	 * Records the latencies of one thread's calls to one method.
+	 */
+	private static class Latencies {
+		private long[] _samples = new long[1024];
+		private int _count;
+		private int _errors;
+
+		private void add(long nanos) {
+			if (_count == _samples.length) {
+				_samples = Arrays.copyOf(_samples, 2 * _count);
+			}
+			_samples[_count++] = nanos;
+		}
+
+		private void addAll(Latencies other) {
+			for (int i = 0; i < other._count; i++) {
+				add(other._samples[i]);
+			}
+			_errors += other._errors;
+		}
+	}
+
+	/**
+	 * Creates a load test of the provided servers, which must already hold the
+	 * roster built by the provided generator. Thread t calls server t modulo the
+	 * number of servers, which lets several threads share one network client.
+	 */
+	public LoadTest(ShiftMan[] servers, RosterGenerator generator, int threads, int ops, int writePercent) {
+		_servers = servers;
+		_generator = generator;
+		_threads = threads;
+		_ops = ops;
+		_writePercent = writePercent;
+	}
+
+	/**
+	 * Runs the configured threads to completion and prints the results.
+	 */
+	public void run() throws InterruptedException {
+		final Latencies[][] perThread = new Latencies[_threads][];
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < _threads; t++) {
+			final int thread = t;
+			perThread[t] = new Latencies[METHODS.length];
+			for (int m = 0; m < METHODS.length; m++) {
+				perThread[t][m] = new Latencies();
+			}
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					drive(thread, perThread[thread]);
+				}
+			}, "load-" + t);
+			threads.add(worker);
+			worker.start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		long elapsed = System.nanoTime() - begin;
+		report(perThread, elapsed);
+	}
+
+	/**
+	 * Makes this thread's calls, recording the latency of each.
+	 */
+	private void drive(int thread, Latencies[] latencies) {
+		Random random = new Random(thread);
+		for (int i = 0; i < _ops; i++) {
+			int method;
+			if (random.nextInt(100) < _writePercent) {
+				method = pickWrite(random);
+			} else {
+				method = WRITE_METHODS + random.nextInt(METHODS.length - WRITE_METHODS);
+			}
+			long callStart = System.nanoTime();
+			boolean error = call(_servers[thread % _servers.length], method, random, thread, i);
+			latencies[method].add(System.nanoTime() - callStart);
+			if (error) {
+				latencies[method]._errors++;
+			}
+		}
+	}
+
+	/**
+	 * Picks a write method: mostly assignments, with occasional shifts, staff and
+	 * working hours.
+	 */
+	private static int pickWrite(Random random) {
+		int roll = random.nextInt(100);
+		if (roll < 70) {
+			return 0;
+		} else if (roll < 85) {
+			return 1;
+		} else if (roll < 95) {
+			return 2;
+		} else {
+			return 3;
+		}
+	}
+
+	/**
+	 * Calls the provided method with generated arguments, returning true if the
+	 * server reported an error. Some errors are expected, such as adding a shift
+	 * which another thread has already added.
+	 */
+	private boolean call(ShiftMan server, int method, Random random, int thread, int i) {
+		Days day = DAYS[random.nextInt(DAYS.length)];
+		int shift = random.nextInt(_generator.getShiftsPerDay());
+		int staff = _generator.pickStaff(random);
+		String given = _generator.givenName(staff);
+		String family = _generator.familyName(staff);
+		switch (method) {
+		case 0:
+			shift &= ~1;
+			return isError(server.assignStaff(day.name(), _generator.startTime(day, shift),
+					_generator.endTime(day, shift), given, family, false));
+		case 1:
+			return isError(server.addShift(day.name(), _generator.startTime(day, shift),
+					_generator.endTime(day, shift), Integer.toString(_generator.getWorkersPerShift())));
+		case 2:
+			return isError(server.registerStaff("Load" + thread, "Worker" + i));
+		case 3:
+			return isError(server.setWorkingHours(day.name(), _generator.openingTime(day),
+					_generator.closingTime(day)));
+		case 4:
+			return isError(server.getRosterForDay(day.name()));
+		case 5:
+			return isError(server.getRosterForWorker(given + " " + family));
+		case 6:
+			return isError(server.getShiftsManagedBy(given + " " + family));
+		case 7:
+			return isError(server.understaffedShifts());
+		case 8:
+			return isError(server.overstaffedShifts());
+		case 9:
+			return isError(server.shiftsWithoutManagers());
+		case 10:
+			return isError(server.getRegisteredStaff());
+		case 11:
+			return isError(server.getUnassignedStaff());
+		case 12:
+			return isError(server.displayRoster());
+		default:
+			return isError(server.reportRosterIssues());
+		}
+	}
+
+	/**
+	 * Returns true if the provided status string is an error.
+	 */
+	private static boolean isError(String status) {
+		return status.startsWith("ERROR");
+	}
+
+	/**
+	 * Returns true if the provided result list is an error.
+	 */
+	private static boolean isError(List<String> result) {
+		return result.size() == 1 && result.get(0).startsWith("ERROR");
+	}
+
+	/**
+	 * Merges every thread's latencies for each method and prints one line per
+	 * method which was called.
+	 */
+	private void report(Latencies[][] perThread, long elapsed) {
+		System.out.println("threads=" + _threads + " ops=" + _ops + " writes=" + _writePercent + "% staff="
+				+ _generator.getStaffCount() + " shifts=" + _generator.getShiftsPerDay() + " perShift="
+				+ _generator.getWorkersPerShift());
+		System.out.println(String.format("%-22s %10s %12s %10s %10s %10s %10s %8s", "method", "calls", "calls/s",
+				"p50 ns", "p99 ns", "p999 ns", "max ns", "errors"));
+		long total = 0;
+		for (int m = 0; m < METHODS.length; m++) {
+			Latencies merged = new Latencies();
+			for (Latencies[] thread : perThread) {
+				merged.addAll(thread[m]);
+			}
+			if (merged._count == 0) {
+				continue;
+			}
+			total += merged._count;
+			long[] sorted = Arrays.copyOf(merged._samples, merged._count);
+			Arrays.sort(sorted);
+			System.out.println(String.format("%-22s %10d %12.0f %10d %10d %10d %10d %8d", METHODS[m], merged._count,
+					merged._count * 1e9 / elapsed, percentile(sorted, 0.50), percentile(sorted, 0.99),
+					percentile(sorted, 0.999), sorted[sorted.length - 1], merged._errors));
+		}
+		System.out.println(String.format("total %d calls in %.2f s, %.0f calls/s", total, elapsed / 1e9,
+				total * 1e9 / elapsed));
+	}
+
+	/**
+	 * Returns the provided percentile of the provided sorted latencies.
+	 */
+	private static long percentile(long[] sorted, double percentile) {
+		return sorted[(int) Math.min(sorted.length - 1, Math.floor(percentile * sorted.length))];
+	}
+
+	/**
+	 * Parses name=value arguments, builds the starting roster and runs the load
+	 * test.
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int ops = 100000;
+		int writes = 10;
+		int staff = 500;
+		int shifts = 32;
+		int perShift = 4;
+		double skew = 1.0;
+		boolean snapshot = false;
+		int connections = 0;
+		String executor = "fixed";
+		int pool = 2 * Runtime.getRuntime().availableProcessors();
+		String fanOut = "false";
+		int threshold = WeeklyRoster.DEFAULT_FAN_OUT_THRESHOLD;
+		boolean log = false;
+		for (String arg : args) {
+			String[] pair = arg.split("=", 2);
+			if (pair.length != 2) {
+				throw new IllegalArgumentException("Expected name=value but got: " + arg);
+			} else if (pair[0].equals("threads")) {
+				threads = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("ops")) {
+				ops = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("writes")) {
+				writes = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("staff")) {
+				staff = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("shifts")) {
+				shifts = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("perShift")) {
+				perShift = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("skew")) {
+				skew = Double.parseDouble(pair[1]);
+			} else if (pair[0].equals("connections")) {
+				connections = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("executor")) {
+				executor = pair[1];
+			} else if (pair[0].equals("pool")) {
+				pool = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("fanOut")) {
+				fanOut = pair[1];
+			} else if (pair[0].equals("threshold")) {
+				threshold = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("log")) {
+				log = Boolean.parseBoolean(pair[1]);
+			} else if (pair[0].equals("snapshot")) {
+				snapshot = Boolean.parseBoolean(pair[1]);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + pair[0]);
+			}
+		}
+		RosterGenerator generator = new RosterGenerator(staff, shifts, perShift, skew, 42);
+		RosterManager roster = generator.build(snapshot, true);
+		if (log) {
+			Path directory = Files.createTempDirectory("shiftman-load");
+			roster.attachLog(new RosterLog(directory.resolve("roster.log")));
+			roster.checkpoint(directory.resolve("roster.checkpoint"));
+		}
+		ShiftManServer server = new ShiftManServer(roster, snapshot);
+		ExecutorService requests = newExecutor(executor, pool);
+		ExecutorService fanOutTasks = fanOut.equals("true") ? newExecutor(executor, pool) : null;
+		if (fanOut.equals("forkJoin")) {
+			server.setFanOut(ForkJoinPool.commonPool(), threshold);
+		} else {
+			server.setFanOut(fanOutTasks, threshold);
+		}
+		System.out.println("executor=" + executor + (executor.equals("fixed") ? " pool=" + pool : "")
+				+ " virtualThreads=" + RequestExecutors.virtualThreadsAvailable() + " fanOut=" + fanOut + " log="
+				+ log);
+		try {
+			if (connections <= 0) {
+				new LoadTest(new ShiftMan[] { server }, generator, threads, ops, writes).run();
+			} else {
+				runOverNetwork(server, requests, generator, threads, ops, writes, connections);
+			}
+		} finally {
+			requests.shutdown();
+			if (fanOutTasks != null) {
+				fanOutTasks.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Returns a new executor of the named kind: "fixed" for a fixed pool of the
+	 * provided size, or "perTask" for one virtual thread, where available, per
+	 * task.
+	 */
+	private static ExecutorService newExecutor(String kind, int pool) {
+		if (kind.equals("fixed")) {
+			return RequestExecutors.newFixedPool(pool);
+		} else if (kind.equals("perTask")) {
+			return RequestExecutors.newThreadPerTask();
+		} else {
+			throw new IllegalArgumentException("Unknown executor: " + kind);
+		}
+	}
+
+	/**
+	 * Serves the provided server from a ShiftManEndpoint on the loopback interface
+	 * whose calls run on the provided executor, and runs the load test through
+	 * the provided number of client connections to it.
+	 */
+	private static void runOverNetwork(ShiftManServer server, ExecutorService requests, RosterGenerator generator,
+			int threads, int ops, int writes, int connections) throws Exception {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		ShiftManEndpoint endpoint = new ShiftManEndpoint(server, new InetSocketAddress(loopback, 0), requests);
+		endpoint.start();
+		ShiftManClient[] clients = new ShiftManClient[connections];
+		try {
+			for (int i = 0; i < connections; i++) {
+				clients[i] = new ShiftManClient(new InetSocketAddress(loopback, endpoint.getPort()));
+			}
+			new LoadTest(clients, generator, threads, ops, writes).run();
+		} finally {
+			for (ShiftManClient c : clients) {
+				if (c != null) {
+					c.close();
+				}
+			}
+			endpoint.close();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package shiftman.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import shiftman.server.Assignment;
+import shiftman.server.RosterManager;
+import shiftman.server.ShiftSpec;
+import shiftman.server.WeeklyRoster.Days;
+
+/**
+ * Generates synthetic rosters for benchmarking. A roster is described by its number of registered
+ * staff, the number of shifts on each day and the number of workers assigned to each shift. The
+ * shop opens from 06:00 to 22:00 on weekdays and from 08:00 to 20:00 at weekends, and each day's
+ * shifts are spread evenly across its working hours without touching each other.
+ *
+ * <p>Staff are picked with a Zipf-like skew, so that a few workers are far more popular than the
+ * rest, as in a real shop. A skew of 0 picks staff uniformly. Picks use a fixed seed, so the same
+ * parameters always produce the same roster.
+ */
+public class RosterGenerator {
+	private static final int WEEKDAY_OPEN = 6 * 60;
+	private static final int WEEKDAY_CLOSE = 22 * 60;
+	private static final int WEEKEND_OPEN = 8 * 60;
+	private static final int WEEKEND_CLOSE = 20 * 60;
+
+	private final int _staffCount;
+	private final int _shiftsPerDay;
+	private final int _workersPerShift;
+	private final long _seed;
+	private final double[] _popularity;
+
+	/**
+	 * Creates a generator for rosters with the provided shape. Each day can hold
+	 * at most 360 shifts, as shifts may not touch each other, and there must be
+	 * more staff than workers per shift, as each shift's manager and workers are
+	 * all different people.
+	 */
+	public RosterGenerator(int staffCount, int shiftsPerDay, int workersPerShift, double skew, long seed) {
+		if (shiftsPerDay < 1 || (WEEKEND_CLOSE - WEEKEND_OPEN) / shiftsPerDay < 2) {
+			throw new IllegalArgumentException("Shifts per day must be between 1 and 360");
+		}
+		if (workersPerShift < 0 || workersPerShift >= staffCount) {
+			throw new IllegalArgumentException("Workers per shift must be between 0 and staff count - 1");
+		}
+		_staffCount = staffCount;
+		_shiftsPerDay = shiftsPerDay;
+		_workersPerShift = workersPerShift;
+		_seed = seed;
+		_popularity = new double[staffCount];
+		double total = 0;
+		for (int i = 0; i < staffCount; i++) {
+			total += 1 / Math.pow(i + 1, skew);
+			_popularity[i] = total;
+		}
+		for (int i = 0; i < staffCount; i++) {
+			_popularity[i] /= total;
+		}
+	}
+
+	public int getStaffCount() {
+		return _staffCount;
+	}
+
+	public int getShiftsPerDay() {
+		return _shiftsPerDay;
+	}
+
+	public int getWorkersPerShift() {
+		return _workersPerShift;
+	}
+
+	/**
+	 * Returns the given name of the provided member of staff.
+	 */
+	public String givenName(int staff) {
+		return "Given" + staff;
+	}
+
+	/**
+	 * Returns the family name of the provided member of staff.
+	 */
+	public String familyName(int staff) {
+		return "Family" + staff;
+	}
+
+	/**
+	 * Picks a member of staff at random, favouring popular staff according to
+	 * this generator's skew.
+	 */
+	public int pickStaff(Random random) {
+		int index = Arrays.binarySearch(_popularity, random.nextDouble());
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return Math.min(index, _staffCount - 1);
+	}
+
+	/**
+	 * Returns the opening time, as HH:MM, of the provided day.
+	 */
+	public String openingTime(Days day) {
+		return format(open(day));
+	}
+
+	/**
+	 * Returns the closing time, as HH:MM, of the provided day.
+	 */
+	public String closingTime(Days day) {
+		return format(close(day));
+	}
+
+	/**
+	 * Returns the start time, as HH:MM, of the provided shift of the provided day.
+	 */
+	public String startTime(Days day, int shift) {
+		return format(open(day) + shift * slot(day));
+	}
+
+	/**
+	 * Returns the end time, as HH:MM, of the provided shift of the provided day.
+	 */
+	public String endTime(Days day, int shift) {
+		return format(open(day) + shift * slot(day) + slot(day) - 1);
+	}
+
+	/**
+	 * Returns the specs of the shifts in the week, in order of day and then start
+	 * time, or of only every other shift of each day if evenOnly is true. Each
+	 * shift requires workersPerShift workers.
+	 */
+	public List<ShiftSpec> shifts(boolean evenOnly) {
+		List<ShiftSpec> specs = new ArrayList<ShiftSpec>();
+		for (Days d : Days.values()) {
+			for (int i = 0; i < _shiftsPerDay; i += evenOnly ? 2 : 1) {
+				specs.add(new ShiftSpec(d.name(), startTime(d, i), endTime(d, i), Integer.toString(_workersPerShift)));
+			}
+		}
+		return specs;
+	}
+
+	/**
+	 * Returns the assignments filling each of the provided shifts with a manager
+	 * and workersPerShift workers, chosen from the staff by popularity. No one is
+	 * picked twice for the same shift.
+	 */
+	public List<Assignment> assignments(List<ShiftSpec> shifts) {
+		Random random = new Random(_seed);
+		List<Assignment> assignments = new ArrayList<Assignment>();
+		Set<Integer> picked = new HashSet<Integer>();
+		for (ShiftSpec s : shifts) {
+			picked.clear();
+			int manager = pickStaff(random);
+			picked.add(manager);
+			assignments.add(new Assignment(s.getDayOfWeek(), s.getStartTime(), s.getEndTime(), givenName(manager),
+					familyName(manager), true));
+			for (int j = 0; j < _workersPerShift; j++) {
+				int worker = pickStaff(random);
+				while (!picked.add(worker)) {
+					worker = pickStaff(random);
+				}
+				assignments.add(new Assignment(s.getDayOfWeek(), s.getStartTime(), s.getEndTime(), givenName(worker),
+						familyName(worker), false));
+			}
+		}
+		return assignments;
+	}
+
+	/**
+	 * Builds a roster with working hours set for every day and all staff
+	 * registered. If evenOnly is true only every other shift is added, leaving
+	 * room to add the rest later; every added shift is filled. Throws
+	 * IllegalStateException if any shift or assignment is refused.
+	 */
+	public RosterManager build(boolean snapshotReads, boolean evenOnly) {
+		RosterManager roster = new RosterManager("Benchmark", snapshotReads);
+		try {
+			for (Days d : Days.values()) {
+				roster.setWorkingHours(d.name(), openingTime(d), closingTime(d));
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		for (int i = 0; i < _staffCount; i++) {
+			roster.registerWorker(givenName(i), familyName(i));
+		}
+		List<ShiftSpec> shifts = shifts(evenOnly);
+		checkResults(roster.addShifts(shifts));
+		checkResults(roster.assignStaff(assignments(shifts)));
+		return roster;
+	}
+
+	/**
+	 * Throws IllegalStateException with the first error in the provided results
+	 * of a batch, if there is one.
+	 */
+	private static void checkResults(List<String> results) {
+		for (String r : results) {
+			if (!r.isEmpty()) {
+				throw new IllegalStateException(r);
+			}
+		}
+	}
+
+	/**
+	 * Returns the minute the shop opens on the provided day.
+	 */
+	private static int open(Days day) {
+		return day == Days.Saturday || day == Days.Sunday ? WEEKEND_OPEN : WEEKDAY_OPEN;
+	}
+
+	/**
+	 * Returns the minute the shop closes on the provided day.
+	 */
+	private static int close(Days day) {
+		return day == Days.Saturday || day == Days.Sunday ? WEEKEND_CLOSE : WEEKDAY_CLOSE;
+	}
+
+	/**
+	 * Returns the number of minutes each shift's slot of the provided day takes
+	 * up.
+	 */
+	private int slot(Days day) {
+		return (close(day) - open(day)) / _shiftsPerDay;
+	}
+
+	/**
+	 * Formats the provided minutes past midnight as HH:MM.
+	 */
+	private static String format(int minutes) {
+		int hour = minutes / 60;
+		int minute = minutes % 60;
+		return (hour < 10 ? "0" : "") + hour + ":" + (minute < 10 ? "0" : "") + minute;
+	}
+}
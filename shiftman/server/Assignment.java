@@ -0,0 +1,48 @@
+package shiftman.server;
+
+/**
+ * Describes one assignment of a worker to a shift, to be made by a batch call to assignStaff.
+ * Holds the same values as the parameters of a single assignStaff call.
+ */
+public class Assignment {
+	private final String _dayOfWeek;
+	private final String _startTime;
+	private final String _endTime;
+	private final String _givenName;
+	private final String _familyName;
+	private final boolean _isManager;
+
+	public Assignment(String dayOfWeek, String startTime, String endTime, String givenName, String familyName,
+			boolean isManager) {
+		_dayOfWeek = dayOfWeek;
+		_startTime = startTime;
+		_endTime = endTime;
+		_givenName = givenName;
+		_familyName = familyName;
+		_isManager = isManager;
+	}
+
+	public String getDayOfWeek() {
+		return _dayOfWeek;
+	}
+
+	public String getStartTime() {
+		return _startTime;
+	}
+
+	public String getEndTime() {
+		return _endTime;
+	}
+
+	public String getGivenName() {
+		return _givenName;
+	}
+
+	public String getFamilyName() {
+		return _familyName;
+	}
+
+	public boolean isManager() {
+		return _isManager;
+	}
+}
@@ -0,0 +1,79 @@
+package shiftman.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A RosterStore which saves each shop's roster as a RosterCheckpoint file in a directory, so that
+ * evicted rosters occupy no heap and survive a restart of the server.
+ */
+public class CheckpointRosterStore implements RosterStore {
+	private static final int MAX_PREFIX = 32;
+	private static final int HASH_BYTES = 16;
+	private final Path _directory;
+	private final boolean _snapshotReads;
+
+	/**
+	 * Creates a store keeping its checkpoints in the provided directory.
+	 */
+	public CheckpointRosterStore(Path directory, boolean snapshotReads) {
+		_directory = directory;
+		_snapshotReads = snapshotReads;
+	}
+
+	@Override
+	public RosterManager load(String shopName) {
+		Path file = fileFor(shopName);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		try {
+			return RosterCheckpoint.load(file, _snapshotReads);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void save(String shopName, RosterManager roster) {
+		try {
+			roster.checkpoint(fileFor(shopName));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns the checkpoint file for the provided shop. The file name is up to 32
+	 * of the name's first characters, with anything but ASCII letters, digits and
+	 * '-' replaced by '_', followed by a hash of the whole name, so any name gives
+	 * a short, valid and distinct file name.
+	 */
+	private Path fileFor(String shopName) {
+		if (shopName == null) {
+			throw new IllegalArgumentException("Shop name must not be null");
+		}
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < shopName.length() && i < MAX_PREFIX; i++) {
+			char c = shopName.charAt(i);
+			boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-';
+			name.append(safe ? c : '_');
+		}
+		name.append('.');
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(shopName.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (int i = 0; i < HASH_BYTES; i++) {
+			name.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return _directory.resolve(name.append(".ckpt").toString());
+	}
+}
@@ -1,94 +1,319 @@
 package shiftman.server;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import shiftman.server.WeeklyRoster.Days;
 
 /**
  * Represents the roster for a day of the week. Contains the day's collection of shifts and stores
  * information regarding the assignment of workers and managers to shifts during this day.
+ * Each assignment is added to the week's WorkerSchedules, which hold every worker's shifts across
+ * all days, and to the worker's timeline of every shift they are booked for in either role, which
+ * is used to refuse bookings that overlap.
+ * 
+ * <p>Each day is guarded by its own read/write lock, so changes to different days can proceed in
+ * parallel and queries on a day do not block each other.
+ * 
+ * <p>The day's rendered roster and issues are cached once built, and the cache is cleared by every
+ * change to the day, so repeated displays of an unchanged day reuse the same strings. The roster is
+ * rendered in one place, as a list of lines, from which toStrings, display and writeTo all read;
+ * writeTo writes the cached text after releasing the day's lock.
  */
 public class DailyRoster {
 	private TimePeriod _workingHours = new TimePeriod();
 	private String _day;
+	private Days _dayOfWeek;
 	private Shifts _shifts = new Shifts();
-	private Map<Worker, Shifts> _workerShifts = new HashMap<Worker, Shifts>();
-	private Map<Worker, Shifts> _managerShifts = new HashMap<Worker, Shifts>();
+	private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+	private volatile List<String> _lines;
+	private volatile String _display;
+	private volatile String _issues;
+	private final WorkerSchedules _workerSchedules;
+	private final WorkerSchedules _managerSchedules;
+	private final WorkerTimelines _timelines;
+	private final AtomicInteger _weekShiftCount;
 
 	/**
-	 * Creates a DailyRoster object for the provided day
+	 * The queries over a day's shifts which WeeklyRoster runs across the week.
+	 */
+	public enum Query {
+		WITHOUT_MANAGERS, UNDERSTAFFED, OVERSTAFFED;
+	}
+
+	/**
+	 * Creates a DailyRoster object for the provided day, whose assignments are
+	 * also added to the provided week's schedules of workers and managers, and to
+	 * the timelines of every shift each worker is booked for. Each shift added to
+	 * the day is also counted in the provided count of the week's shifts.
 	 * 
 	 * @param day Day of this roster
 	 */
-	public DailyRoster(String day) {
-		_day = day;
+	public DailyRoster(Days day, WorkerSchedules workerSchedules, WorkerSchedules managerSchedules,
+			WorkerTimelines timelines, AtomicInteger weekShiftCount) {
+		_day = day.name();
+		_dayOfWeek = day;
+		_workerSchedules = workerSchedules;
+		_managerSchedules = managerSchedules;
+		_timelines = timelines;
+		_weekShiftCount = weekShiftCount;
+	}
+
+	/**
+	 * Returns the day of the week this roster is for.
+	 */
+	public Days getDay() {
+		return _dayOfWeek;
+	}
+
+	/**
+	 * Acquires this day's read lock on behalf of a caller which needs this day to
+	 * stay unchanged across several queries. Must be paired with unlockForReading.
+	 */
+	public void lockForReading() {
+		_lock.readLock().lock();
+	}
+
+	/**
+	 * Releases the read lock acquired by lockForReading.
+	 */
+	public void unlockForReading() {
+		_lock.readLock().unlock();
+	}
+
+	/**
+	 * Acquires this day's write lock on behalf of a caller which makes several
+	 * changes to this day as one. Must be paired with unlockForWriting.
+	 */
+	public void lockForWriting() {
+		_lock.writeLock().lock();
+	}
+
+	/**
+	 * Releases the write lock acquired by lockForWriting.
+	 */
+	public void unlockForWriting() {
+		_lock.writeLock().unlock();
 	}
 
 	/**
 	 * Sets the working hours for this day's roster
 	 */
 	public void setWorkingHours(String startTime, String endTime) throws InvalidTimeException {
-		_workingHours.setTimes(startTime, endTime);
+		_lock.writeLock().lock();
+		try {
+			invalidateRender();
+			_workingHours.setTimes(startTime, endTime);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns this day's working hours. Callers must hold this day's read lock
+	 * while using it.
+	 */
+	public TimePeriod getWorkingHours() {
+		return _workingHours;
+	}
+
+	/**
+	 * Returns the number of shifts in this day's roster.
+	 */
+	public int shiftCount() {
+		_lock.readLock().lock();
+		try {
+			return _shifts.getShifts().size();
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Runs the provided query, returning the selected shifts each in the format
+	 * day[HH:MM-HH:MM].
+	 */
+	public List<String> query(Query query) {
+		switch (query) {
+		case WITHOUT_MANAGERS:
+			return shiftsWithoutManagers();
+		case UNDERSTAFFED:
+			return understaffedShifts();
+		default:
+			return overStaffedShifts();
+		}
+	}
+
+	/**
+	 * Returns this day's shifts, in order of start time. Callers must hold this
+	 * day's read lock while using them.
+	 */
+	public Collection<Shift> getShifts() {
+		return _shifts.getShifts();
+	}
+
+	/**
+	 * Restores this day's working hours from minutes past midnight.
+	 */
+	public void restoreWorkingHours(int startMinute, int endMinute) {
+		_lock.writeLock().lock();
+		try {
+			invalidateRender();
+			_workingHours.setMinutes(startMinute, endMinute);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Restores a previously saved shift, including its manager and workers, to
+	 * this day's roster.
+	 */
+	public void restoreShift(Shift shift) {
+		_lock.writeLock().lock();
+		try {
+			invalidateRender();
+			int shiftCount = _shifts.getShifts().size();
+			_shifts.restoreShift(shift);
+			_weekShiftCount.addAndGet(_shifts.getShifts().size() - shiftCount);
+			if (shift.getManager() != null) {
+				restoreAssignment(shift, shift.getManager(), true);
+			}
+			for (Worker w : shift.getWorkers()) {
+				restoreAssignment(shift, w, false);
+			}
+		} finally {
+			_lock.writeLock().unlock();
+		}
 	}
 
 	/**
 	 * Adds a shift to this day's roster with the following parameters.
 	 */
-	public void addShift(String startTime, String endTime, String minimumWorkers) throws InvalidTimeException {
-		_shifts.addShift(_day, startTime, endTime, minimumWorkers, _workingHours);
+	public void addShift(String startTime, String endTime, String minimumWorkers)
+			throws InvalidTimeException, InvalidCountException {
+		_lock.writeLock().lock();
+		try {
+			invalidateRender();
+			_shifts.addShift(_day, startTime, endTime, minimumWorkers, _workingHours);
+			_weekShiftCount.incrementAndGet();
+		} finally {
+			_lock.writeLock().unlock();
+		}
 	}
 
 	/**
 	 * Returns this day's shifts without managers
 	 */
 	public List<String> shiftsWithoutManagers() {
-		return _shifts.shiftsWithoutManagers();
+		_lock.readLock().lock();
+		try {
+			return _shifts.shiftsWithoutManagers();
+		} finally {
+			_lock.readLock().unlock();
+		}
 	}
 
 	/**
 	 * Returns this day's understaffed shifts
 	 */
 	public List<String> understaffedShifts() {
-		return _shifts.understaffedShifts();
+		_lock.readLock().lock();
+		try {
+			return _shifts.understaffedShifts();
+		} finally {
+			_lock.readLock().unlock();
+		}
 	}
 
 	/**
 	 * Returns a formatting list of strings containing this day's overstaffed shifts
 	 */
 	public List<String> overStaffedShifts() {
-		return _shifts.overStaffedShifts();
+		_lock.readLock().lock();
+		try {
+			return _shifts.overStaffedShifts();
+		} finally {
+			_lock.readLock().unlock();
+		}
 	}
 
 	/**
 	 * Requests for the provided worker to be added to the shift represented by the
-	 * parameters. Registers that worker's assignment.
+	 * parameters. Registers that worker's assignment. Refuses the assignment if
+	 * the worker is already booked for a different, overlapping shift, in either
+	 * role, where shifts which only touch overlap as in TimePeriod.testOverlap;
+	 * booking them again for the same shift is allowed.
+	 * Shifts on different days never overlap, so holding this day's write lock
+	 * keeps the test and the assignment together. Returns false, changing
+	 * nothing, if there is no such shift.
+	 */
+	public boolean assignStaff(String startTime, String endTime, Worker worker, boolean isManager)
+			throws ManagerAssignedException, DoubleBookedException {
+		_lock.writeLock().lock();
+		try {
+			Shift shift = _shifts.findShift(startTime, endTime);
+			if (shift == null) {
+				return false;
+			}
+			shift.testAssignable(isManager);
+			book(shift, worker);
+			invalidateRender();
+			_shifts.assignStaff(shift, worker, isManager);
+			registerAssignment(shift, worker, isManager);
+			return true;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Books the provided shift into the provided worker's timeline, throwing a
+	 * DoubleBookedException, and booking nothing, if a different shift there
+	 * overlaps it.
 	 */
-	public void assignStaff(String startTime, String endTime, Worker worker, boolean isManager)
-			throws ManagerAssignedException {
-		Shift assignedShift = _shifts.assignStaff(startTime, endTime, worker, isManager);
-		registerAssignment(assignedShift, worker, isManager);
+	private void book(Shift shift, Worker worker) throws DoubleBookedException {
+		if (worker.getId() < 0) {
+			return;
+		}
+		Shift booked = _timelines.book(worker.getId(), _dayOfWeek, shift);
+		if (booked != null) {
+			throw new DoubleBookedException("ERROR: Staff member: " + worker.toString() + " is already assigned to "
+					+ booked.toString());
+		}
 	}
 
 	/**
-	 * Registers the assignment of a worker or manager to a shift in our
-	 * _workerShift and _managerShift HashMaps. 
+	 * Registers the restored assignment of a worker or manager to a shift in the
+	 * week's schedules and the worker's timeline, whether or not it overlaps
+	 * their other shifts. Must be called while holding this day's write lock.
 	 */
-	public void registerAssignment(Shift shift, Worker worker, boolean isManager) {
+	private void restoreAssignment(Shift shift, Worker worker, boolean isManager) {
+		registerAssignment(shift, worker, isManager);
+		if (worker.getId() >= 0) {
+			_timelines.add(worker.getId(), _dayOfWeek, shift);
+		}
+	}
+
+	/**
+	 * Registers the assignment of a worker or manager to a shift in the week's
+	 * schedules, once it has been booked into the worker's timeline. Must be
+	 * called while holding this day's write lock.
+	 */
+	private void registerAssignment(Shift shift, Worker worker, boolean isManager) {
+		if (worker.getId() < 0) {
+			return;
+		}
 		if (!isManager) {
-			if (_workerShifts.get(worker) == null) {
-				_workerShifts.put(worker, new Shifts());
-			}
-			Shifts tempShifts = _workerShifts.get(worker);
-			tempShifts.addShift(shift);
-			_workerShifts.put(worker, tempShifts);
+			_workerSchedules.add(worker.getId(), _dayOfWeek, shift);
 		} else {
-			if (_managerShifts.get(worker) == null) {
-				_managerShifts.put(worker, new Shifts());
-			}
-			Shifts tempShifts = _managerShifts.get(worker);
-			tempShifts.addShift(shift);
-			_managerShifts.put(worker, tempShifts);
+			_managerSchedules.add(worker.getId(), _dayOfWeek, shift);
 		}
 	}
 
@@ -101,43 +326,127 @@ public class DailyRoster {
 	 * @return Formatted list of string representing this day's roster
 	 */
 	public List<String> toStrings() {
-		List<String> daysRoster = new ArrayList<String>();
-		daysRoster.add(_day + " " + _workingHours.toString());
-		daysRoster.addAll(_shifts.toDescriptions());
-		return daysRoster;
+		_lock.readLock().lock();
+		try {
+			return new ArrayList<String>(renderLines());
+		} finally {
+			_lock.readLock().unlock();
+		}
 	}
 
 	/**
-	 * Returns a formatted list of strings representing today's shifts which the
-	 * provided worker is assigned to. Each entry contains one shift in the
-	 * following format: day[HH:MM-HH:MM].
+	 * Returns the entries returned by toStrings, rendering them if this day has
+	 * changed since they were last rendered. Must be called while holding this
+	 * day's read lock.
 	 */
-	public List<String> getRosterForWorker(Worker worker) {
-		Shifts tempShifts = _workerShifts.get(worker);
-		List<String> workerShifts = new ArrayList<String>();
-		if (tempShifts == null) {
-			return workerShifts;
-		} else {
-			tempShifts.sort();
-			workerShifts.addAll(tempShifts.toStringList());
-			return workerShifts;
+	private List<String> renderLines() {
+		List<String> lines = _lines;
+		if (lines == null) {
+			lines = new ArrayList<String>(_shifts.getShifts().size() + 1);
+			lines.add(_day + " " + _workingHours.toString());
+			StringBuilder builder = new StringBuilder();
+			for (Shift s : _shifts.getShifts()) {
+				builder.setLength(0);
+				s.appendFormattedDescription(builder);
+				lines.add(builder.toString());
+			}
+			lines = Collections.unmodifiableList(lines);
+			_lines = lines;
 		}
+		return lines;
 	}
 
 	/**
-	 * Returns a formatted list of strings representing today's shifts which the
-	 * provided manager is assigned to. Each entry contains one shift in the
-	 * following format: day[HH:MM-HH:MM].
+	 * Writes this day's text, as returned by display, to the provided sink. The
+	 * text is taken while this day is locked and written after it is unlocked, so
+	 * a slow sink does not hold up changes to the day.
 	 */
-	public List<String> getShiftsManagedBy(Worker worker) {
-		Shifts tempShifts = _managerShifts.get(worker);
-		List<String> managedShifts = new ArrayList<String>();
-		if (tempShifts == null) {
-			return managedShifts;
-		} else {
-			tempShifts.sort();
-			managedShifts.addAll(tempShifts.toStringList());
-			return managedShifts;
+	public void writeTo(Appendable out) throws IOException {
+		out.append(display());
+	}
+
+	/**
+	 * Returns this day's roster as text, one line for each entry returned by
+	 * toStrings, or an empty string if this day has no shifts. The text is built
+	 * once and reused until this day next changes.
+	 */
+	public String display() {
+		String display = _display;
+		if (display != null) {
+			return display;
+		}
+		_lock.readLock().lock();
+		try {
+			StringBuilder builder = new StringBuilder();
+			List<String> lines = renderLines();
+			if (lines.size() > 1) {
+				for (String line : lines) {
+					builder.append(line).append('\n');
+				}
+			}
+			display = builder.toString();
+			_display = display;
+			return display;
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the staffing issues with this day's shifts as text, one line for
+	 * each shift without a manager, understaffed or overstaffed, in order of start
+	 * time. Returns an empty string if there are no issues. The text is built once
+	 * and reused until this day next changes.
+	 */
+	public String reportIssues() {
+		String issues = _issues;
+		if (issues != null) {
+			return issues;
+		}
+		_lock.readLock().lock();
+		try {
+			StringBuilder builder = new StringBuilder();
+			for (Shift s : _shifts.getShifts()) {
+				if (!s.hasManager()) {
+					builder.append(s.toString()).append(" has no manager\n");
+				}
+				int staffing = s.testStaffing();
+				if (staffing != 0) {
+					builder.append(s.toString()).append(staffing < 0 ? " is understaffed (" : " is overstaffed (")
+							.append(s.getWorkerCount()).append(" of ").append(s.getMinimumWorkers())
+							.append(" workers)\n");
+				}
+			}
+			issues = builder.toString();
+			_issues = issues;
+			return issues;
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Clears this day's cached display and issues. Must be called while holding
+	 * this day's write lock, before the day is changed.
+	 */
+	private void invalidateRender() {
+		_lines = null;
+		_display = null;
+		_issues = null;
+	}
+
+	/**
+	 * Passes each of this day's shifts, in order of start time, to the provided
+	 * visitor.
+	 */
+	public void visitShifts(ShiftVisitor visitor) {
+		_lock.readLock().lock();
+		try {
+			for (Shift s : _shifts.getShifts()) {
+				visitor.visitShift(s);
+			}
+		} finally {
+			_lock.readLock().unlock();
 		}
 	}
 }
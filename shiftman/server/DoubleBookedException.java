@@ -0,0 +1,13 @@
+package shiftman.server;
+
+/**
+ * Reports an assignment which would book a worker onto a shift overlapping a different shift they
+ * already hold, in either role. The message names the shift already held.
+ */
+public class DoubleBookedException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public DoubleBookedException(String msg) {
+		super(msg, null, false, false);
+	}
+}
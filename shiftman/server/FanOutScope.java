@@ -0,0 +1,66 @@
+package shiftman.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs a group of subtasks on an Executor and joins them as one, in the manner of a structured
+ * concurrency scope: join waits for every subtask and returns their results in the order they
+ * were forked, the first failure cancels the subtasks still running and is rethrown, and closing
+ * the scope cancels anything left running. A scope must be closed by the thread which opened it.
+ */
+public class FanOutScope<T> implements AutoCloseable {
+	private final Executor _executor;
+	private final List<FutureTask<T>> _tasks = new ArrayList<FutureTask<T>>();
+
+	public FanOutScope(Executor executor) {
+		_executor = executor;
+	}
+
+	/**
+	 * Starts the provided subtask.
+	 */
+	public void fork(Callable<T> task) {
+		FutureTask<T> future = new FutureTask<T>(task);
+		_tasks.add(future);
+		_executor.execute(future);
+	}
+
+	/**
+	 * Waits for every forked subtask and returns their results in fork order. If
+	 * a subtask failed, the rest are cancelled and its exception is rethrown.
+	 */
+	public List<T> join() throws InterruptedException {
+		List<T> results = new ArrayList<T>(_tasks.size());
+		for (FutureTask<T> task : _tasks) {
+			try {
+				results.add(task.get());
+			} catch (ExecutionException e) {
+				close();
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				} else {
+					throw new IllegalStateException(cause);
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Cancels every subtask which has not finished.
+	 */
+	@Override
+	public void close() {
+		for (FutureTask<T> task : _tasks) {
+			task.cancel(true);
+		}
+	}
+}
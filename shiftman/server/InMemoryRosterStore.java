@@ -0,0 +1,23 @@
+package shiftman.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A RosterStore which simply keeps evicted rosters in a map. Useful for development and for
+ * servers which only need to bound the number of rosters being actively used, rather than the
+ * heap they occupy.
+ */
+public class InMemoryRosterStore implements RosterStore {
+	private Map<String, RosterManager> _rosters = new ConcurrentHashMap<String, RosterManager>();
+
+	@Override
+	public RosterManager load(String shopName) {
+		return _rosters.get(shopName);
+	}
+
+	@Override
+	public void save(String shopName, RosterManager roster) {
+		_rosters.put(shopName, roster);
+	}
+}
@@ -0,0 +1,12 @@
+package shiftman.server;
+
+/**
+ * Reports a minimum number of workers for a shift which is not a whole number that fits in an int.
+ */
+public class InvalidCountException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public InvalidCountException(String msg) {
+		super(msg, null, false, false);
+	}
+}
@@ -1,7 +1,12 @@
 package shiftman.server;
 
+/**
+ * Reports a day name which does not exactly match one of the Days, such as "monday" or "Funday".
+ */
 public class InvalidDayException extends Exception{
+	private static final long serialVersionUID = 1L;
+
 	public InvalidDayException(String msg) {
-		super(msg);
+		super(msg, null, false, false);
 	}
 }
@@ -1,7 +1,13 @@
 package shiftman.server;
 
+/**
+ * Reports a time which is not in HH:MM form, a period which does not start before it ends, or a
+ * shift which overlaps another shift or falls outside the day's working hours.
+ */
 public class InvalidTimeException extends Exception {
+	private static final long serialVersionUID = 1L;
+
 	public InvalidTimeException(String msg) {
-		super(msg);
+		super(msg, null, false, false);
 	}
 }
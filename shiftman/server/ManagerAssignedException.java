@@ -1,7 +1,13 @@
 package shiftman.server;
 
+/**
+ * Reports an attempt to assign a manager to a shift which already has one. The message names the
+ * manager already assigned.
+ */
 public class ManagerAssignedException extends Exception {
+	private static final long serialVersionUID = 1L;
+
 	public ManagerAssignedException(String msg) {
-		super(msg);
+		super(msg, null, false, false);
 	}
 }
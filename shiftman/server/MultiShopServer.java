@@ -0,0 +1,352 @@
+package shiftman.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hosts the rosters of many shops in one process. Each shop is used through the ShiftMan returned
+ * by forShop. A shop's roster is loaded from the RosterStore the first time it is used, and once
+ * more than the configured number of rosters are resident the least recently used idle rosters
+ * are saved back to the store and dropped from memory.
+ *
+ * <p>Shops are independent of each other; calls on different shops only contend briefly on the
+ * resident set while their roster is looked up. A roster is pinned while a call on it is in
+ * progress, so it is never evicted part way through a change. Evicted rosters are saved after the
+ * resident set is unlocked, by the call which evicted them; a call on a shop whose roster is being
+ * saved waits for the save and keeps the roster resident. If an eviction's save fails, the roster
+ * stays resident and is saved again when next evicted.
+ */
+public class MultiShopServer {
+	private final RosterStore _store;
+	private final int _maxResident;
+	private final boolean _snapshotReads;
+	private final Map<String, Tenant> _resident = new LinkedHashMap<String, Tenant>(16, 0.75f, true);
+	private final Map<String, Tenant> _evicting = new HashMap<String, Tenant>();
+
+	/**
+	 * Holds the server for one resident shop, the number of calls currently using
+	 * it and whether it is being evicted. The pin count and eviction flag are
+	 * guarded by the resident set; loading and saving the server are guarded by
+	 * the tenant itself.
+	 */
+	private static class Tenant {
+		private final String _shopName;
+		private volatile ShiftManServer _server;
+		private int _pins;
+		private boolean _evicting;
+
+		private Tenant(String shopName) {
+			_shopName = shopName;
+		}
+	}
+
+	/**
+	 * Creates a server keeping at most maxResident idle rosters in memory, and
+	 * saving evicted rosters to the provided store.
+	 */
+	public MultiShopServer(RosterStore store, int maxResident, boolean snapshotReads) {
+		_store = store;
+		_maxResident = maxResident;
+		_snapshotReads = snapshotReads;
+	}
+
+	/**
+	 * Returns a ShiftMan for the provided shop. The returned object is cheap, holds
+	 * no roster state itself and may be shared between threads.
+	 */
+	public ShiftMan forShop(String shopName) {
+		return new ShopView(shopName);
+	}
+
+	/**
+	 * Returns the number of rosters currently held in memory.
+	 */
+	public int residentCount() {
+		synchronized (_resident) {
+			return _resident.size();
+		}
+	}
+
+	/**
+	 * Saves every resident roster to the store, leaving them resident. Every
+	 * roster is attempted; if any save fails, the first failure is thrown once all
+	 * have been attempted, with any later failures suppressed in it.
+	 */
+	public void saveAll() {
+		List<Tenant> tenants;
+		synchronized (_resident) {
+			tenants = new ArrayList<Tenant>(_resident.values());
+		}
+		RuntimeException failure = null;
+		for (Tenant t : tenants) {
+			try {
+				save(t);
+			} catch (RuntimeException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Pins the provided shop's tenant, loading its roster from the store if it is
+	 * not already resident. Must be paired with a call to release.
+	 */
+	private Tenant acquire(String shopName) {
+		Tenant tenant;
+		synchronized (_resident) {
+			tenant = _resident.get(shopName);
+			if (tenant == null) {
+				tenant = _evicting.get(shopName);
+				if (tenant == null) {
+					tenant = new Tenant(shopName);
+				}
+				_resident.put(shopName, tenant);
+			}
+			tenant._pins++;
+		}
+		try {
+			synchronized (tenant) {
+				if (tenant._server == null) {
+					tenant._server = new ShiftManServer(_store.load(shopName), _snapshotReads);
+				}
+			}
+		} catch (RuntimeException e) {
+			release(tenant);
+			throw e;
+		}
+		return tenant;
+	}
+
+	/**
+	 * Unpins the provided tenant, then evicts idle rosters if there are more
+	 * resident than allowed. The evicted rosters are saved once the resident set
+	 * is unlocked.
+	 */
+	private void release(Tenant tenant) {
+		List<Tenant> victims = new ArrayList<Tenant>();
+		synchronized (_resident) {
+			tenant._pins--;
+			Iterator<Tenant> lru = _resident.values().iterator();
+			while (_resident.size() > _maxResident && lru.hasNext()) {
+				Tenant t = lru.next();
+				if (t._pins == 0 && !t._evicting) {
+					lru.remove();
+					t._evicting = true;
+					_evicting.put(t._shopName, t);
+					victims.add(t);
+				}
+			}
+		}
+		for (Tenant t : victims) {
+			evict(t);
+		}
+	}
+
+	/**
+	 * Saves the provided tenant, which has been taken out of the resident set, and
+	 * then forgets it. If the save fails the tenant is made resident again, so
+	 * that its roster is not lost.
+	 */
+	private void evict(Tenant tenant) {
+		boolean saved;
+		try {
+			save(tenant);
+			saved = true;
+		} catch (RuntimeException e) {
+			saved = false;
+		}
+		synchronized (_resident) {
+			tenant._evicting = false;
+			_evicting.remove(tenant._shopName);
+			if (!saved && !_resident.containsKey(tenant._shopName)) {
+				_resident.put(tenant._shopName, tenant);
+			}
+		}
+	}
+
+	/**
+	 * Saves the provided tenant's roster to the store, if it has one.
+	 */
+	private void save(Tenant tenant) {
+		synchronized (tenant) {
+			ShiftManServer server = tenant._server;
+			if (server != null && server.getRoster() != null) {
+				_store.save(tenant._shopName, server.getRoster());
+			}
+		}
+	}
+
+	/**
+	 * The ShiftMan for one shop. Each call pins the shop's roster for its
+	 * duration and is delegated to the shop's ShiftManServer.
+	 */
+	private class ShopView implements ShiftMan {
+		private final String _shopName;
+
+		private ShopView(String shopName) {
+			_shopName = shopName;
+		}
+
+		@Override
+		public String newRoster(String shopName) {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.newRoster(shopName);
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public String setWorkingHours(String dayOfWeek, String startTime, String endTime) {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.setWorkingHours(dayOfWeek, startTime, endTime);
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public String addShift(String dayOfWeek, String startTime, String endTime, String minimumWorkers) {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.addShift(dayOfWeek, startTime, endTime, minimumWorkers);
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public String registerStaff(String givenname, String familyName) {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.registerStaff(givenname, familyName);
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public String assignStaff(String dayOfWeek, String startTime, String endTime, String givenName,
+				String familyName, boolean isManager) {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.assignStaff(dayOfWeek, startTime, endTime, givenName, familyName, isManager);
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public List<String> getRegisteredStaff() {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.getRegisteredStaff();
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public List<String> getUnassignedStaff() {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.getUnassignedStaff();
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public List<String> shiftsWithoutManagers() {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.shiftsWithoutManagers();
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public List<String> understaffedShifts() {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.understaffedShifts();
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public List<String> overstaffedShifts() {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.overstaffedShifts();
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public List<String> getRosterForDay(String dayOfWeek) {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.getRosterForDay(dayOfWeek);
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public List<String> getRosterForWorker(String workerName) {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.getRosterForWorker(workerName);
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public List<String> getShiftsManagedBy(String managerName) {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.getShiftsManagedBy(managerName);
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public String reportRosterIssues() {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.reportRosterIssues();
+			} finally {
+				release(t);
+			}
+		}
+
+		@Override
+		public String displayRoster() {
+			Tenant t = acquire(_shopName);
+			try {
+				return t._server.displayRoster();
+			} finally {
+				release(t);
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package shiftman.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors ShiftMan calls can be run on, for use with ShiftManEndpoint and as the
+ * fan-out executor of a ShiftManServer.
+ *
+ * <p>A call can block on roster locks or on a RosterLog commit. On a fixed pool each blocked call
+ * holds one of a few platform threads, while with one virtual thread per task a blocked call only
+ * parks its own virtual thread. Virtual threads need Java 21, so they are looked up reflectively.
+ * On older runtimes a bounded pool of daemon platform threads is used instead, so that a burst of
+ * blocked calls queues rather than starting a platform thread for each.
+ */
+public class RequestExecutors {
+	/**
+	 * The number of platform threads newThreadPerTask starts at most where
+	 * virtual threads are not available.
+	 */
+	public static final int DEFAULT_FALLBACK_THREADS = 256;
+	private static final long FALLBACK_KEEP_ALIVE_SECONDS = 60;
+
+	private RequestExecutors() {
+	}
+
+	/**
+	 * Returns true if this runtime supports virtual threads.
+	 */
+	public static boolean virtualThreadsAvailable() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns an executor which runs each task on a new virtual thread, or on a
+	 * pool of at most DEFAULT_FALLBACK_THREADS daemon platform threads if virtual
+	 * threads are not available.
+	 */
+	public static ExecutorService newThreadPerTask() {
+		return newThreadPerTask(DEFAULT_FALLBACK_THREADS);
+	}
+
+	/**
+	 * Returns an executor which runs each task on a new virtual thread, or on a
+	 * pool of at most the provided number of daemon platform threads if virtual
+	 * threads are not available. Tasks beyond that number wait in the pool's
+	 * queue, and threads left idle for a minute exit.
+	 */
+	public static ExecutorService newThreadPerTask(int fallbackThreads) {
+		if (fallbackThreads <= 0) {
+			throw new IllegalArgumentException("fallbackThreads must be positive: " + fallbackThreads);
+		}
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(fallbackThreads, fallbackThreads,
+					FALLBACK_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					daemonThreads("shiftman-task-"));
+			pool.allowCoreThreadTimeOut(true);
+			return pool;
+		}
+	}
+
+	/**
+	 * Returns a fixed pool of the provided number of daemon platform threads.
+	 */
+	public static ExecutorService newFixedPool(int threads) {
+		return Executors.newFixedThreadPool(threads, daemonThreads("shiftman-pool-"));
+	}
+
+	/**
+	 * Returns a factory of daemon threads named with the provided prefix.
+	 */
+	private static ThreadFactory daemonThreads(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,231 @@
+package shiftman.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import shiftman.server.WeeklyRoster.Days;
+
+/**
+ * Saves and loads the complete state of a roster as a compact binary checkpoint. Workers are
+ * written once and referred to by int ids. Each shift is written as its start and end minutes,
+ * its minimum staffing, its manager's id and its workers' ids.
+ *
+ * <p>The layout is: magic, shop name, the worker table (given name, family name, assigned flag),
+ * then for each day in order its working hours (-1 if not set), its shift count and its shifts.
+ * Strings are a two byte length followed by their UTF-8 bytes.
+ *
+ * <p>Checkpoints are written to a temporary file which is forced and then atomically moved over
+ * the previous checkpoint. The directory is forced after the move, so once write returns the new
+ * checkpoint survives a crash and a log restarted from it may be truncated. Checkpoints are read
+ * back through a MappedByteBuffer.
+ */
+public class RosterCheckpoint {
+	private static final int MAGIC = 0x52534331;
+	private static final int NO_WORKER = -1;
+	private static final int NULL_STRING = 0xFFFF;
+
+	private RosterCheckpoint() {
+	}
+
+	/**
+	 * Writes a checkpoint of the provided roster state to the provided file, and
+	 * returns once it is durable. The caller must hold the locks which prevent the
+	 * roster and staff from changing.
+	 */
+	public static void write(Path file, String shopName, WeeklyRoster weeklyRoster, Workers staff)
+			throws IOException {
+		Encoder out = new Encoder();
+		out.putInt(MAGIC);
+		out.putString(shopName);
+		List<Worker> workers = staff.getWorkers();
+		Map<Worker, Integer> ids = new IdentityHashMap<Worker, Integer>();
+		out.putInt(workers.size());
+		for (Worker w : workers) {
+			ids.put(w, ids.size());
+			out.putString(w.getGivenName());
+			out.putString(w.getFamilyName());
+			out.putByte(staff.isAssigned(w) ? 1 : 0);
+		}
+		for (Days d : Days.values()) {
+			DailyRoster day = weeklyRoster.getDailyRoster(d);
+			TimePeriod workingHours = day.getWorkingHours();
+			if (workingHours.isSet()) {
+				out.putShort(workingHours.getStartMinute());
+				out.putShort(workingHours.getEndMinute());
+			} else {
+				out.putShort(-1);
+				out.putShort(-1);
+			}
+			out.putInt(day.getShifts().size());
+			for (Shift s : day.getShifts()) {
+				out.putShort(s.getStartMinute());
+				out.putShort(s.getEndMinute());
+				out.putInt(s.getMinimumWorkers());
+				out.putInt(idOf(ids, s.getManager()));
+				List<Worker> shiftWorkers = s.getWorkers();
+				out.putInt(shiftWorkers.size());
+				for (Worker w : shiftWorkers) {
+					out.putInt(idOf(ids, w));
+				}
+			}
+		}
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = out.toBuffer();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		forceDirectory(file.toAbsolutePath().getParent());
+	}
+
+	/**
+	 * Forces the provided directory, so that a file moved into it is still there
+	 * after a crash.
+	 */
+	private static void forceDirectory(Path directory) throws IOException {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Loads the roster saved in the provided checkpoint file.
+	 */
+	public static RosterManager load(Path file, boolean snapshotReads) throws IOException {
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.remaining() < 4 || in.getInt() != MAGIC) {
+			throw new IOException("Not a roster checkpoint: " + file);
+		}
+		byte[] scratch = new byte[256];
+		String shopName = getString(in, scratch);
+		Workers staff = new Workers();
+		Worker[] workers = new Worker[in.getInt()];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker(getString(in, scratch), getString(in, scratch), i);
+			staff.addWorker(workers[i]);
+			if (in.get() != 0) {
+				staff.setAssigned(workers[i]);
+			}
+		}
+		WeeklyRoster weeklyRoster = new WeeklyRoster();
+		for (Days d : Days.values()) {
+			DailyRoster day = weeklyRoster.getDailyRoster(d);
+			int startMinute = in.getShort();
+			int endMinute = in.getShort();
+			if (startMinute >= 0) {
+				day.restoreWorkingHours(startMinute, endMinute);
+			}
+			int shiftCount = in.getInt();
+			for (int i = 0; i < shiftCount; i++) {
+				Shift shift = new Shift(d.name(), in.getShort(), in.getShort(), in.getInt());
+				int manager = in.getInt();
+				try {
+					if (manager != NO_WORKER) {
+						shift.assignStaff(workers[manager], true);
+					}
+					int workerCount = in.getInt();
+					for (int j = 0; j < workerCount; j++) {
+						int worker = in.getInt();
+						if (worker != NO_WORKER) {
+							shift.assignStaff(workers[worker], false);
+						}
+					}
+				} catch (ManagerAssignedException e) {
+					throw new IOException("Corrupt roster checkpoint: " + file, e);
+				}
+				day.restoreShift(shift);
+			}
+		}
+		return new RosterManager(shopName, weeklyRoster, staff, snapshotReads);
+	}
+
+	/**
+	 * Returns the id of the provided worker, or NO_WORKER if it is null.
+	 */
+	private static int idOf(Map<Worker, Integer> ids, Worker worker) {
+		Integer id = worker == null ? null : ids.get(worker);
+		return id == null ? NO_WORKER : id;
+	}
+
+	/**
+	 * Reads a string written by Encoder.putString, using the provided scratch
+	 * array where it is large enough.
+	 */
+	private static String getString(ByteBuffer in, byte[] scratch) {
+		int length = in.getShort() & 0xFFFF;
+		if (length == NULL_STRING) {
+			return null;
+		}
+		byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+		in.get(bytes, 0, length);
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A growable buffer the checkpoint is encoded into before being written.
+	 */
+	private static class Encoder {
+		private ByteBuffer _buffer = ByteBuffer.allocate(64 * 1024);
+
+		private void putByte(int value) {
+			ensureCapacity(1);
+			_buffer.put((byte) value);
+		}
+
+		private void putShort(int value) {
+			ensureCapacity(2);
+			_buffer.putShort((short) value);
+		}
+
+		private void putInt(int value) {
+			ensureCapacity(4);
+			_buffer.putInt(value);
+		}
+
+		private void putString(String value) {
+			if (value == null) {
+				putShort(NULL_STRING);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length >= NULL_STRING) {
+				throw new IllegalArgumentException("String too long to checkpoint");
+			}
+			putShort(bytes.length);
+			ensureCapacity(bytes.length);
+			_buffer.put(bytes);
+		}
+
+		private ByteBuffer toBuffer() {
+			_buffer.flip();
+			return _buffer;
+		}
+
+		private void ensureCapacity(int bytes) {
+			if (_buffer.remaining() < bytes) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * _buffer.capacity(), _buffer.position() + bytes));
+				_buffer.flip();
+				larger.put(_buffer);
+				_buffer = larger;
+			}
+		}
+	}
+}
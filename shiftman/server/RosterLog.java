@@ -0,0 +1,454 @@
+package shiftman.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import shiftman.server.WeeklyRoster.Days;
+
+/**
+ * An append-only log of the changes made to one roster, stored in a local file. Each change is
+ * written as a compact binary record: an int length, a byte operation code and the operation's
+ * arguments. Days are written as a single byte where possible, and strings as a two byte length
+ * followed by their UTF-8 bytes.
+ *
+ * <p>Records are appended to an in-memory buffer, and made durable by commit. Commits use group
+ * commit: the first thread to commit writes and forces every record appended so far, and any
+ * thread whose record was included in that write returns without touching the file itself.
+ *
+ * <p>A log may start from a RosterCheckpoint rather than an empty roster, in which case its first
+ * record names the checkpoint file, and only changes made after the checkpoint are replayed.
+ * 
+ * <p>Every requested change is logged, including those which fail, since a failed change can still
+ * leave part of its effect behind. Replaying the log therefore repeats exactly the same calls.
+ *
+ * <p>If the log file cannot be written, the records in the failed write are lost, so the log fails:
+ * every later append and commit throws a RosterLogException, until the log is restarted with reset
+ * or restartFrom.
+ */
+public class RosterLog implements Closeable {
+	private static final int MAGIC = 0x52534c31;
+	private static final byte OP_ROSTER = 1;
+	private static final byte OP_WORKING_HOURS = 2;
+	private static final byte OP_REGISTER_STAFF = 3;
+	private static final byte OP_ADD_SHIFT = 4;
+	private static final byte OP_ASSIGN_STAFF = 5;
+	private static final byte OP_CHECKPOINT = 6;
+	private static final byte DAY_AS_STRING = -1;
+	private static final int NULL_STRING = 0xFFFF;
+	private static final Days[] DAYS = Days.values();
+
+	private final FileChannel _channel;
+	private final Object _commitLock = new Object();
+	private ByteBuffer _pending = ByteBuffer.allocate(64 * 1024);
+	private ByteBuffer _flushing = ByteBuffer.allocate(64 * 1024);
+	private long _appended;
+	private volatile long _durable;
+	private volatile RosterLogException _failure;
+
+	/**
+	 * Opens the log stored in the provided file, creating the file if it does not
+	 * exist. Call recover before appending to an existing log.
+	 */
+	public RosterLog(Path file) throws IOException {
+		_channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Replays the log into a fresh RosterManager and attaches this log to it, so
+	 * that further changes are appended. Any partly written record at the end of
+	 * the log is discarded. Returns null if the log is empty. In snapshot mode the
+	 * roster publishes no snapshots while the log replays, and one at the end.
+	 */
+	public RosterManager recover(boolean snapshotReads) throws IOException {
+		synchronized (_commitLock) {
+			long size = _channel.size();
+			if (size < 4) {
+				truncate(0);
+				return null;
+			}
+			ByteBuffer log = ByteBuffer.allocate((int) size);
+			while (log.hasRemaining() && _channel.read(log, log.position()) >= 0) {
+			}
+			log.flip();
+			if (log.getInt() != MAGIC) {
+				throw new IOException("Not a roster log");
+			}
+			RosterManager roster = null;
+			long validEnd = log.position();
+			while (log.remaining() >= 4) {
+				int length = log.getInt();
+				if (length <= 0 || length > log.remaining()) {
+					break;
+				}
+				int next = log.position() + length;
+				RosterManager replayed;
+				if (log.get(log.position()) == OP_CHECKPOINT) {
+					log.get();
+					replayed = RosterCheckpoint.load(Paths.get(getString(log)), snapshotReads);
+				} else {
+					replayed = replay(log, roster, snapshotReads);
+				}
+				if (replayed != roster && replayed != null) {
+					replayed.suspendPublishing();
+				}
+				roster = replayed;
+				log.position(next);
+				validEnd = next;
+			}
+			truncate(validEnd);
+			if (roster != null) {
+				roster.resumePublishing();
+				roster.attachLog(this);
+			}
+			return roster;
+		}
+	}
+
+	/**
+	 * Applies the record at the buffer's position to the provided roster, returning
+	 * the roster later records should be applied to. Exceptions thrown by the
+	 * roster are ignored, as they were reported when the change was first made.
+	 */
+	private RosterManager replay(ByteBuffer log, RosterManager roster, boolean snapshotReads) {
+		byte op = log.get();
+		if (op == OP_ROSTER) {
+			return new RosterManager(getString(log), snapshotReads);
+		} else if (roster == null) {
+			return null;
+		}
+		try {
+			switch (op) {
+			case OP_WORKING_HOURS:
+				roster.setWorkingHours(getDay(log), getString(log), getString(log));
+				break;
+			case OP_REGISTER_STAFF:
+				roster.registerWorker(getString(log), getString(log));
+				break;
+			case OP_ADD_SHIFT:
+				roster.addShift(getDay(log), getString(log), getString(log), getString(log));
+				break;
+			case OP_ASSIGN_STAFF:
+				roster.assignStaff(getDay(log), getString(log), getString(log), getString(log), getString(log),
+						log.get() != 0);
+				break;
+			default:
+				break;
+			}
+		} catch (Exception e) {
+		}
+		return roster;
+	}
+
+	/**
+	 * Discards the contents of this log and starts it again for a new roster of
+	 * the provided shop.
+	 */
+	public void reset(String shopName) {
+		restart(OP_ROSTER, shopName);
+	}
+
+	/**
+	 * Discards the contents of this log and starts it again from the roster saved
+	 * in the provided checkpoint file. The caller must ensure no changes are
+	 * logged between writing the checkpoint and restarting the log.
+	 */
+	public void restartFrom(Path checkpoint) {
+		restart(OP_CHECKPOINT, checkpoint.toAbsolutePath().toString());
+	}
+
+	/**
+	 * Truncates this log and writes a first record with the provided operation
+	 * and string argument.
+	 */
+	private void restart(byte op, String value) {
+		checkLengths(value);
+		synchronized (_commitLock) {
+			synchronized (this) {
+				_pending.clear();
+				_failure = null;
+				try {
+					truncate(0);
+				} catch (IOException e) {
+					throw fail(e);
+				}
+				ensureCapacity(4);
+				_pending.putInt(MAGIC);
+				_appended += 4;
+				int start = beginRecord(op);
+				putString(value);
+				endRecord(start);
+			}
+			commit(_appended);
+		}
+	}
+
+	/**
+	 * Appends a record of a setWorkingHours call, returning the position commit
+	 * must reach for it to be durable.
+	 */
+	public synchronized long appendWorkingHours(String dayOfWeek, String startTime, String endTime) {
+		checkNotFailed();
+		checkLengths(dayOfWeek, startTime, endTime);
+		int start = beginRecord(OP_WORKING_HOURS);
+		putDay(dayOfWeek);
+		putString(startTime);
+		putString(endTime);
+		return endRecord(start);
+	}
+
+	/**
+	 * Appends a record of a registerStaff call, returning the position commit must
+	 * reach for it to be durable.
+	 */
+	public synchronized long appendRegisterStaff(String givenName, String familyName) {
+		checkNotFailed();
+		checkLengths(givenName, familyName);
+		int start = beginRecord(OP_REGISTER_STAFF);
+		putString(givenName);
+		putString(familyName);
+		return endRecord(start);
+	}
+
+	/**
+	 * Appends a record of an addShift call, returning the position commit must
+	 * reach for it to be durable.
+	 */
+	public synchronized long appendAddShift(String dayOfWeek, String startTime, String endTime,
+			String minimumWorkers) {
+		checkNotFailed();
+		checkLengths(dayOfWeek, startTime, endTime, minimumWorkers);
+		int start = beginRecord(OP_ADD_SHIFT);
+		putDay(dayOfWeek);
+		putString(startTime);
+		putString(endTime);
+		putString(minimumWorkers);
+		return endRecord(start);
+	}
+
+	/**
+	 * Appends a record of an assignStaff call, returning the position commit must
+	 * reach for it to be durable.
+	 */
+	public synchronized long appendAssignStaff(String dayOfWeek, String startTime, String endTime,
+			String givenName, String familyName, boolean isManager) {
+		checkNotFailed();
+		checkLengths(dayOfWeek, startTime, endTime, givenName, familyName);
+		int start = beginRecord(OP_ASSIGN_STAFF);
+		putDay(dayOfWeek);
+		putString(startTime);
+		putString(endTime);
+		putString(givenName);
+		putString(familyName);
+		ensureCapacity(1);
+		_pending.put((byte) (isManager ? 1 : 0));
+		return endRecord(start);
+	}
+
+	/**
+	 * Waits until every record up to the provided position has been written and
+	 * forced to the file. If another thread is already committing, its write may
+	 * cover this position, in which case no further write is needed. Throws a
+	 * RosterLogException if the log has failed before the position was durable.
+	 */
+	public void commit(long position) {
+		if (position <= _durable) {
+			return;
+		}
+		synchronized (_commitLock) {
+			if (position <= _durable) {
+				return;
+			}
+			checkNotFailed();
+			ByteBuffer batch;
+			long end;
+			synchronized (this) {
+				batch = _pending;
+				_pending = _flushing;
+				_flushing = batch;
+				end = _appended;
+			}
+			batch.flip();
+			try {
+				while (batch.hasRemaining()) {
+					_channel.write(batch);
+				}
+				_channel.force(false);
+			} catch (IOException e) {
+				throw fail(e);
+			} finally {
+				batch.clear();
+			}
+			_durable = end;
+		}
+	}
+
+	/**
+	 * Commits every record appended so far, unless the log has failed, and closes
+	 * the log file.
+	 */
+	@Override
+	public void close() throws IOException {
+		long end;
+		synchronized (this) {
+			end = _appended;
+		}
+		try {
+			if (_failure == null) {
+				commit(end);
+			}
+		} finally {
+			_channel.close();
+		}
+	}
+
+	/**
+	 * Puts this log into the failed state because of the provided error, and
+	 * returns the exception reporting it.
+	 */
+	private RosterLogException fail(IOException cause) {
+		String msg = "ERROR: The roster log could not be written";
+		if (cause.getMessage() != null) {
+			msg += ": " + cause.getMessage();
+		}
+		RosterLogException failure = new RosterLogException(msg, cause);
+		_failure = failure;
+		return failure;
+	}
+
+	/**
+	 * Throws the exception which put this log into the failed state, if it has
+	 * failed.
+	 */
+	private void checkNotFailed() {
+		RosterLogException failure = _failure;
+		if (failure != null) {
+			throw new RosterLogException(failure.getMessage(), failure);
+		}
+	}
+
+	/**
+	 * Checks that each of the provided values can be written by putString, before
+	 * any of a record is appended. No character takes more than three UTF-8 bytes,
+	 * so only long values need to be encoded.
+	 */
+	private static void checkLengths(String... values) {
+		for (String value : values) {
+			if (value != null && value.length() >= NULL_STRING / 3
+					&& value.getBytes(StandardCharsets.UTF_8).length >= NULL_STRING) {
+				throw new RosterLogException("ERROR: Value provided is too long to record");
+			}
+		}
+	}
+
+	/**
+	 * Truncates the log file to the provided length and continues appending from
+	 * there. Must be called holding the commit lock.
+	 */
+	private void truncate(long length) throws IOException {
+		_channel.truncate(length);
+		_channel.position(length);
+		_appended = length;
+		_durable = length;
+	}
+
+	/**
+	 * Reserves space for a record's length and writes its operation code,
+	 * returning the buffer position the record starts at.
+	 */
+	private int beginRecord(byte op) {
+		ensureCapacity(5);
+		int start = _pending.position();
+		_pending.putInt(0);
+		_pending.put(op);
+		return start;
+	}
+
+	/**
+	 * Fills in the length of the record starting at the provided buffer position,
+	 * and returns the log position at the end of the record.
+	 */
+	private long endRecord(int start) {
+		int length = _pending.position() - start;
+		_pending.putInt(start, length - 4);
+		_appended += length;
+		return _appended;
+	}
+
+	/**
+	 * Writes a day as the ordinal of its Days value, or as a string if it is not a
+	 * valid day.
+	 */
+	private void putDay(String dayOfWeek) {
+		for (Days d : DAYS) {
+			if (d.name().equals(dayOfWeek)) {
+				ensureCapacity(1);
+				_pending.put((byte) d.ordinal());
+				return;
+			}
+		}
+		ensureCapacity(1);
+		_pending.put(DAY_AS_STRING);
+		putString(dayOfWeek);
+	}
+
+	/**
+	 * Writes a string as its length followed by its UTF-8 bytes. The string must
+	 * have been checked by checkLengths.
+	 */
+	private void putString(String value) {
+		if (value == null) {
+			ensureCapacity(2);
+			_pending.putShort((short) NULL_STRING);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		ensureCapacity(2 + bytes.length);
+		_pending.putShort((short) bytes.length);
+		_pending.put(bytes);
+	}
+
+	/**
+	 * Reads a day written by putDay.
+	 */
+	private static String getDay(ByteBuffer log) {
+		byte day = log.get();
+		if (day == DAY_AS_STRING) {
+			return getString(log);
+		} else {
+			return DAYS[day].name();
+		}
+	}
+
+	/**
+	 * Reads a string written by putString.
+	 */
+	private static String getString(ByteBuffer log) {
+		int length = log.getShort() & 0xFFFF;
+		if (length == NULL_STRING) {
+			return null;
+		}
+		String value = new String(log.array(), log.arrayOffset() + log.position(), length, StandardCharsets.UTF_8);
+		log.position(log.position() + length);
+		return value;
+	}
+
+	/**
+	 * Grows the pending buffer if it cannot hold the provided number of further
+	 * bytes.
+	 */
+	private void ensureCapacity(int bytes) {
+		if (_pending.remaining() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * _pending.capacity(), _pending.position() + bytes));
+			_pending.flip();
+			larger.put(_pending);
+			_pending = larger;
+		}
+	}
+}
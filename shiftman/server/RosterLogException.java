@@ -0,0 +1,18 @@
+package shiftman.server;
+
+/**
+ * Reports that a change could not be recorded in a RosterLog, either because one of its values is
+ * too long for a record or because the log file could not be written. Unchecked, as it is thrown
+ * from the end of every change while a log is attached.
+ */
+public class RosterLogException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public RosterLogException(String msg) {
+		super(msg);
+	}
+
+	public RosterLogException(String msg, Throwable cause) {
+		super(msg, cause);
+	}
+}
@@ -1,29 +1,316 @@
 package shiftman.server;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import shiftman.server.WeeklyRoster.Days;
 
 /**
  * Represents the week's management system. Contains the week's roster, registered workers
  * and the main interactions between these two objects.
+ * 
+ * <p>The registered staff are guarded by a read/write lock held by this object, while each day of
+ * the week's roster is guarded by its own lock within the DailyRoster.
+ * 
+ * <p>In snapshot mode, queries are answered from an immutable RosterSnapshot published through a
+ * volatile field, and take no locks. Changes are applied one at a time, and each change which
+ * alters the roster bumps its version and publishes the next snapshot before the next change may
+ * start. The next snapshot renders again only the days, workers and staff lists the change
+ * touched.
+ * 
+ * <p>If a RosterLog is attached, every change is appended to the log before it is applied, and the
+ * change does not return until its record is durable. Changes are applied one at a time while a
+ * log is attached, so that replaying the log reproduces the same roster.
  */
 public class RosterManager {
 	private String _shopName;
 	private WeeklyRoster _weeklyRoster = new WeeklyRoster();
 	private Workers _registeredStaff = new Workers();
+	private final ReadWriteLock _staffLock = new ReentrantReadWriteLock();
+	private final boolean _snapshotReads;
+	private final AtomicLong _version = new AtomicLong();
+	private volatile RosterSnapshot _snapshot;
+	private volatile RosterLog _log;
+	private final Lock _writeOrder = new ReentrantLock();
+	private boolean _publishing = true;
+
+	/**
+	 * The parts of the roster one change altered, which the next snapshot must
+	 * render again.
+	 */
+	private static class Changes {
+		private final Set<Days> _days = EnumSet.noneOf(Days.class);
+		private final List<Worker> _workers = new ArrayList<Worker>();
+		private boolean _staff;
+		private boolean _unassigned;
+
+		private boolean isEmpty() {
+			return _days.isEmpty() && _workers.isEmpty() && !_staff && !_unassigned;
+		}
+
+		/**
+		 * Records the day with the provided name, if there is such a day.
+		 */
+		private void addDay(String dayOfWeek) {
+			Days day = WeeklyRoster.findDay(dayOfWeek);
+			if (day != null) {
+				_days.add(day);
+			}
+		}
+	}
 
 	/**
 	 * Create new roster for given shop.
 	 */
 	public RosterManager(String shopName) {
+		this(shopName, false);
+	}
+
+	/**
+	 * Create new roster for given shop, answering queries from immutable snapshots
+	 * if snapshotReads is true.
+	 */
+	public RosterManager(String shopName, boolean snapshotReads) {
 		_shopName = shopName;
+		_snapshotReads = snapshotReads;
+		publishAll();
+	}
+
+	/**
+	 * Create a roster for given shop from an existing week's roster and registered
+	 * staff, as when loading a RosterCheckpoint.
+	 */
+	public RosterManager(String shopName, WeeklyRoster weeklyRoster, Workers registeredStaff,
+			boolean snapshotReads) {
+		this(shopName, snapshotReads);
+		_weeklyRoster = weeklyRoster;
+		_registeredStaff = registeredStaff;
+		publishAll();
+	}
+
+	/**
+	 * Sets the executor queries over the whole week are fanned out on, or null to
+	 * query each day in turn, and the number of shifts below which queries are not
+	 * fanned out. See WeeklyRoster.
+	 */
+	public void setFanOut(Executor fanOut, int threshold) {
+		_weeklyRoster.setFanOut(fanOut, threshold);
+	}
+
+	/**
+	 * Writes a checkpoint of this roster to the provided file. If a log is
+	 * attached, the log is then restarted from the checkpoint once the checkpoint
+	 * is durable, so recovery no longer needs to replay the changes it contains.
+	 */
+	public void checkpoint(Path file) throws IOException {
+		_writeOrder.lock();
+		try {
+			RosterLog log = _log;
+			_staffLock.readLock().lock();
+			_weeklyRoster.lockForReading();
+			try {
+				RosterCheckpoint.write(file, _shopName, _weeklyRoster, _registeredStaff);
+			} finally {
+				_weeklyRoster.unlockForReading();
+				_staffLock.readLock().unlock();
+			}
+			if (log != null) {
+				log.restartFrom(file);
+			}
+		} finally {
+			_writeOrder.unlock();
+		}
+	}
+
+	/**
+	 * Returns the name of the shop this roster is for.
+	 */
+	public String getShopName() {
+		return _shopName;
+	}
+
+	/**
+	 * Attaches the provided log, so that every later change to this roster is
+	 * recorded in it. Must be called before this roster is shared between threads.
+	 */
+	public void attachLog(RosterLog log) {
+		_log = log;
+	}
+
+	/**
+	 * Resets the attached log for a new roster of the provided shop and detaches
+	 * it from this roster. Changes already writing to the log finish first, and
+	 * later changes to this roster are not logged, so none of this roster's
+	 * records can follow the reset. If the reset fails, the log stays attached.
+	 */
+	public void resetLog(String shopName) {
+		_writeOrder.lock();
+		try {
+			RosterLog log = _log;
+			if (log != null) {
+				log.reset(shopName);
+				_log = null;
+			}
+		} finally {
+			_writeOrder.unlock();
+		}
+	}
+
+	/**
+	 * Returns true if changes must be applied one at a time: while a log is
+	 * attached, so that they are applied in the order they are logged, or in
+	 * snapshot mode, so that each publishes its snapshot before the next starts.
+	 */
+	private boolean isOrdered(RosterLog log) {
+		return log != null || _snapshotReads;
+	}
+
+	/**
+	 * Called before each change. Locks out other changes if they must be applied
+	 * one at a time. Returns the attached log, if any. If the log is detached while
+	 * waiting for the lock, tries again without it.
+	 */
+	private RosterLog beginWrite() {
+		while (true) {
+			RosterLog log = _log;
+			if (!isOrdered(log)) {
+				return log;
+			}
+			_writeOrder.lock();
+			if (_log == log) {
+				return log;
+			}
+			_writeOrder.unlock();
+		}
+	}
+
+	/**
+	 * Called after each change, whether or not it succeeded. If the change altered
+	 * the roster, bumps this roster's version and in snapshot mode publishes the
+	 * next snapshot. Then lets the next change proceed, and if a log is attached
+	 * waits until the record at the provided position is durable.
+	 */
+	private void endWrite(RosterLog log, long position, Changes changes) {
+		try {
+			if (!changes.isEmpty()) {
+				long version = _version.incrementAndGet();
+				if (_snapshotReads && _publishing) {
+					publish(version, changes);
+				}
+			}
+		} finally {
+			if (isOrdered(log)) {
+				_writeOrder.unlock();
+			}
+		}
+		if (log != null) {
+			log.commit(position);
+		}
+	}
+
+	/**
+	 * Stops publishing a snapshot after each change, as while a RosterLog replays
+	 * into this roster before any other thread can see it. Must be paired with
+	 * resumePublishing.
+	 */
+	void suspendPublishing() {
+		_publishing = false;
+	}
+
+	/**
+	 * Publishes snapshots after each change again, starting with one snapshot of
+	 * the whole roster.
+	 */
+	void resumePublishing() {
+		_publishing = true;
+		publishAll();
+	}
+
+	/**
+	 * Publishes a snapshot of the whole roster, in snapshot mode.
+	 */
+	private void publishAll() {
+		if (_snapshotReads) {
+			Changes all = new Changes();
+			all._days.addAll(EnumSet.allOf(Days.class));
+			all._workers.addAll(_registeredStaff.getWorkers());
+			all._staff = true;
+			all._unassigned = true;
+			_snapshot = null;
+			publish(_version.get(), all);
+		}
+	}
+
+	/**
+	 * Publishes the next snapshot, built from the current one by rendering again
+	 * what the provided changes altered. Called by the writer which made the
+	 * changes, before any other change can start.
+	 */
+	private void publish(long version, Changes changes) {
+		_staffLock.readLock().lock();
+		_weeklyRoster.lockForReading();
+		try {
+			_snapshot = new RosterSnapshot(_snapshot, version, _shopName, _weeklyRoster, _registeredStaff,
+					changes._days, changes._workers, changes._staff, changes._unassigned);
+		} finally {
+			_weeklyRoster.unlockForReading();
+			_staffLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the snapshot published after the latest change to this roster.
+	 * Returns null unless this roster is in snapshot mode.
+	 */
+	public RosterSnapshot snapshot() {
+		return _snapshot;
+	}
+
+	/**
+	 * Records that the provided worker was assigned on the provided day, setting
+	 * the worker to 'assigned'. The caller must hold the staff write lock.
+	 */
+	private void recordAssignment(Changes changes, Days day, Worker worker) {
+		changes._days.add(day);
+		changes._workers.add(worker);
+		if (!_registeredStaff.isAssigned(worker)) {
+			_registeredStaff.setAssigned(worker);
+			changes._unassigned = true;
+		}
 	}
 
 	/**
 	 * Requests the worker to be added to our registered staff.
 	 */
 	public void registerWorker(String givenName, String familyName) {
-		_registeredStaff.addWorker(givenName, familyName);
+		RosterLog log = beginWrite();
+		long position = 0;
+		Changes changes = new Changes();
+		try {
+			if (log != null) {
+				position = log.appendRegisterStaff(givenName, familyName);
+			}
+			_staffLock.writeLock().lock();
+			try {
+				_registeredStaff.addWorker(givenName, familyName);
+				changes._staff = true;
+				changes._unassigned = true;
+			} finally {
+				_staffLock.writeLock().unlock();
+			}
+		} finally {
+			endWrite(log, position, changes);
+		}
 	}
 
 	/**
@@ -31,15 +318,37 @@ public class RosterManager {
 	 */
 	public void setWorkingHours(String dayOfWeek, String startTime, String endTime)
 			throws InvalidDayException, InvalidTimeException {
-		_weeklyRoster.setWorkingHours(dayOfWeek, startTime, endTime);
+		RosterLog log = beginWrite();
+		long position = 0;
+		Changes changes = new Changes();
+		try {
+			if (log != null) {
+				position = log.appendWorkingHours(dayOfWeek, startTime, endTime);
+			}
+			_weeklyRoster.setWorkingHours(dayOfWeek, startTime, endTime);
+			changes._days.add(WeeklyRoster.findDay(dayOfWeek));
+		} finally {
+			endWrite(log, position, changes);
+		}
 	}
 
 	/**
 	 * Requests a shift to be added for the given day.
 	 */
 	public void addShift(String dayOfWeek, String startTime, String endTime, String minimumWorkers)
-			throws InvalidDayException, InvalidTimeException {
-		_weeklyRoster.addShift(dayOfWeek, startTime, endTime, minimumWorkers);
+			throws InvalidDayException, InvalidTimeException, InvalidCountException {
+		RosterLog log = beginWrite();
+		long position = 0;
+		Changes changes = new Changes();
+		try {
+			if (log != null) {
+				position = log.appendAddShift(dayOfWeek, startTime, endTime, minimumWorkers);
+			}
+			_weeklyRoster.addShift(dayOfWeek, startTime, endTime, minimumWorkers);
+			changes._days.add(WeeklyRoster.findDay(dayOfWeek));
+		} finally {
+			endWrite(log, position, changes);
+		}
 	}
 
 	/**
@@ -47,30 +356,250 @@ public class RosterManager {
 	 * the given shift, and finally sets that worker to 'assigned'.
 	 */
 	public void assignStaff(String dayOfWeek, String startTime, String endTime, String givenName, String familyName,
-			boolean isManager) throws ManagerAssignedException, InvalidDayException {
-		Worker worker = _registeredStaff.findWorker(givenName, familyName);
-		_weeklyRoster.assignStaff(dayOfWeek, startTime, endTime, worker, isManager);
-		_registeredStaff.setAssigned(givenName, familyName);
+			boolean isManager)
+			throws ManagerAssignedException, InvalidDayException, UnregisteredStaffException, DoubleBookedException {
+		RosterLog log = beginWrite();
+		long position = 0;
+		Changes changes = new Changes();
+		try {
+			if (log != null) {
+				position = log.appendAssignStaff(dayOfWeek, startTime, endTime, givenName, familyName, isManager);
+			}
+			Worker worker = findWorker(givenName, familyName);
+			if (worker == null) {
+				throw unregistered(givenName, familyName);
+			}
+			if (_weeklyRoster.assignStaff(dayOfWeek, startTime, endTime, worker, isManager)) {
+				_staffLock.writeLock().lock();
+				try {
+					recordAssignment(changes, WeeklyRoster.findDay(dayOfWeek), worker);
+				} finally {
+					_staffLock.writeLock().unlock();
+				}
+			}
+		} finally {
+			endWrite(log, position, changes);
+		}
+	}
+
+	/**
+	 * Adds each of the provided shifts, in order, as if by a call to addShift,
+	 * returning for each an empty string or the error message addShift would have
+	 * thrown. An item which fails in any other way is reported as an error too,
+	 * and the rest of the batch is still applied, so every item gets a result.
+	 * The batch is not atomic: a failed item is skipped, and the items applied are
+	 * not undone. Every day is locked for the whole batch, so other threads see
+	 * either none or all of the items applied, and if a log is attached the whole
+	 * batch is made durable by a single commit.
+	 */
+	public List<String> addShifts(List<ShiftSpec> specs) {
+		List<String> results = new ArrayList<String>(specs.size());
+		RosterLog log = beginWrite();
+		long position = 0;
+		Changes changes = new Changes();
+		try {
+			_weeklyRoster.lockForWriting();
+			try {
+				for (ShiftSpec s : specs) {
+					try {
+						DailyRoster day = _weeklyRoster.getDailyRoster(s.getDayOfWeek());
+						if (log != null) {
+							position = log.appendAddShift(s.getDayOfWeek(), s.getStartTime(), s.getEndTime(),
+									s.getMinimumWorkers());
+						}
+						day.addShift(s.getStartTime(), s.getEndTime(), s.getMinimumWorkers());
+						changes._days.add(day.getDay());
+						results.add("");
+					} catch (InvalidDayException e) {
+						results.add(e.getMessage());
+					} catch (InvalidTimeException e) {
+						results.add(e.getMessage());
+					} catch (InvalidCountException e) {
+						results.add(e.getMessage());
+					} catch (RuntimeException e) {
+						results.add(failure(e));
+						changes.addDay(s.getDayOfWeek());
+					}
+				}
+			} finally {
+				_weeklyRoster.unlockForWriting();
+			}
+		} finally {
+			endWrite(log, position, changes);
+		}
+		return results;
+	}
+
+	/**
+	 * Makes each of the provided assignments, in order, as if by a call to
+	 * assignStaff, returning for each an empty string or the error message
+	 * assignStaff would have thrown. An item which fails in any other way is
+	 * reported as an error too, and the rest of the batch is still applied. As
+	 * with addShifts, the batch is not atomic. The staff and every day are locked
+	 * for the whole batch, and if a log is attached the whole batch is made
+	 * durable by a single commit.
+	 */
+	public List<String> assignStaff(List<Assignment> assignments) {
+		List<String> results = new ArrayList<String>(assignments.size());
+		RosterLog log = beginWrite();
+		long position = 0;
+		Changes changes = new Changes();
+		try {
+			_staffLock.writeLock().lock();
+			_weeklyRoster.lockForWriting();
+			try {
+				for (Assignment a : assignments) {
+					Worker worker = null;
+					try {
+						worker = _registeredStaff.findWorker(a.getGivenName(), a.getFamilyName());
+						if (worker == null) {
+							results.add(unregistered(a.getGivenName(), a.getFamilyName()).getMessage());
+							continue;
+						}
+						DailyRoster day = _weeklyRoster.getDailyRoster(a.getDayOfWeek());
+						if (log != null) {
+							position = log.appendAssignStaff(a.getDayOfWeek(), a.getStartTime(), a.getEndTime(),
+									a.getGivenName(), a.getFamilyName(), a.isManager());
+						}
+						if (day.assignStaff(a.getStartTime(), a.getEndTime(), worker, a.isManager())) {
+							recordAssignment(changes, day.getDay(), worker);
+						}
+						results.add("");
+					} catch (InvalidDayException e) {
+						results.add(e.getMessage());
+					} catch (ManagerAssignedException e) {
+						results.add(e.getMessage());
+					} catch (DoubleBookedException e) {
+						results.add(e.getMessage());
+					} catch (RuntimeException e) {
+						results.add(failure(e));
+						changes.addDay(a.getDayOfWeek());
+						if (worker != null) {
+							changes._workers.add(worker);
+						}
+					}
+				}
+			} finally {
+				_weeklyRoster.unlockForWriting();
+				_staffLock.writeLock().unlock();
+			}
+		} finally {
+			endWrite(log, position, changes);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the error message reported for a batch item which failed with the
+	 * provided unchecked exception. Such an item may have been partly applied, so
+	 * callers also record its day and worker as changed.
+	 */
+	private static String failure(RuntimeException e) {
+		if (e instanceof RosterLogException) {
+			return e.getMessage();
+		}
+		return "ERROR: Request could not be completed";
+	}
+
+	/**
+	 * Returns the exception reporting that the worker with the given name is not
+	 * registered.
+	 */
+	private static UnregisteredStaffException unregistered(String givenName, String familyName) {
+		return new UnregisteredStaffException("ERROR: Staff member: " + givenName + " " + familyName
+				+ " is not registered");
+	}
+
+	/**
+	 * Returns the registered worker with the given name, or null if there is no
+	 * such worker.
+	 */
+	private Worker findWorker(String givenName, String familyName) {
+		_staffLock.readLock().lock();
+		try {
+			return _registeredStaff.findWorker(givenName, familyName);
+		} finally {
+			_staffLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the registered worker with the given full name, or null if there is
+	 * no such worker.
+	 */
+	private Worker findWorker(String fullName) {
+		_staffLock.readLock().lock();
+		try {
+			return _registeredStaff.findWorker(fullName);
+		} finally {
+			_staffLock.readLock().unlock();
+		}
 	}
 
 	/**
 	 * Returns a formatted list of all registered staff.
 	 */
 	public List<String> getStaff() {
-		return _registeredStaff.getStaff();
+		if (_snapshotReads) {
+			return snapshot().getStaff();
+		}
+		_staffLock.readLock().lock();
+		try {
+			return _registeredStaff.getStaff();
+		} finally {
+			_staffLock.readLock().unlock();
+		}
 	}
 
 	/**
 	 * Returns a formatted list of all staff which are not assigned to any shifts.
 	 */
 	public List<String> getUnassignedStaff() {
-		return _registeredStaff.getUnassignedStaff();
+		if (_snapshotReads) {
+			return snapshot().getUnassignedStaff();
+		}
+		_staffLock.readLock().lock();
+		try {
+			return _registeredStaff.getUnassignedStaff();
+		} finally {
+			_staffLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of registered staff which are not assigned to any shifts.
+	 */
+	public int countUnassignedStaff() {
+		_staffLock.readLock().lock();
+		try {
+			return _registeredStaff.unassignedCount();
+		} finally {
+			_staffLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a description of every pair of overlapping shifts a registered
+	 * worker is booked for, in either role, in order of worker and then of start
+	 * time. Assignments which would overlap are refused, so this only reports
+	 * overlaps in rosters restored from before they were.
+	 */
+	public List<String> findDoubleBookings() {
+		_staffLock.readLock().lock();
+		try {
+			return _weeklyRoster.findDoubleBookings(_registeredStaff.getWorkers());
+		} finally {
+			_staffLock.readLock().unlock();
+		}
 	}
 
 	/**
 	 * Returns a formatted list of all shifts which do not have managers assigned.
 	 */
 	public List<String> shiftsWithoutManagers() {
+		if (_snapshotReads) {
+			return snapshot().shiftsWithoutManagers();
+		}
 		return _weeklyRoster.shiftsWithoutManagers();
 	}
 
@@ -79,6 +608,9 @@ public class RosterManager {
 	 * requirements.
 	 */
 	public List<String> understaffedShifts() {
+		if (_snapshotReads) {
+			return snapshot().understaffedShifts();
+		}
 		return _weeklyRoster.understaffedShifts();
 	}
 
@@ -87,6 +619,9 @@ public class RosterManager {
 	 * requirements.
 	 */
 	public List<String> overStaffedShifts() {
+		if (_snapshotReads) {
+			return snapshot().overStaffedShifts();
+		}
 		return _weeklyRoster.overStaffedShifts();
 	}
 
@@ -95,7 +630,10 @@ public class RosterManager {
 	 * to.
 	 */
 	public List<String> getRosterForWorker(String workerName) {
-		Worker worker = _registeredStaff.findWorker(workerName);
+		if (_snapshotReads) {
+			return snapshot().getRosterForWorker(workerName);
+		}
+		Worker worker = findWorker(workerName);
 		return _weeklyRoster.getRosterForWorker(worker);
 	}
 
@@ -104,14 +642,21 @@ public class RosterManager {
 	 * to manage.
 	 */
 	public List<String> getShiftsManagedBy(String workerName) {
-		Worker worker = _registeredStaff.findWorker(workerName);
+		if (_snapshotReads) {
+			return snapshot().getShiftsManagedBy(workerName);
+		}
+		Worker worker = findWorker(workerName);
 		return _weeklyRoster.getShiftsManagedBy(worker);
 	}
 
 	/**
 	 * Returns a formatted list which details the roster for the provided day.
 	 */
-	public List<String> getRosterForDay(String dayOfWeek) {
+	public List<String> getRosterForDay(String dayOfWeek) throws InvalidDayException {
+		_weeklyRoster.getDailyRoster(dayOfWeek);
+		if (_snapshotReads) {
+			return snapshot().getRosterForDay(dayOfWeek);
+		}
 		List<String> daysRoster = new ArrayList<String>();
 		daysRoster.add(_shopName);
 		daysRoster.addAll(_weeklyRoster.getRosterForDay(dayOfWeek));
@@ -121,4 +666,58 @@ public class RosterManager {
 			return new ArrayList<String>();
 		}
 	}
+
+	/**
+	 * Writes the roster for the provided day to the provided sink, one line for
+	 * each entry returned by getRosterForDay. Writes nothing if the day has no
+	 * shifts. The day's cached text is written, even in snapshot mode, and no lock
+	 * is held while writing.
+	 */
+	public void writeRosterForDay(String dayOfWeek, Appendable out) throws IOException, InvalidDayException {
+		String text = _weeklyRoster.getDailyRoster(dayOfWeek).display();
+		if (!text.isEmpty()) {
+			out.append(_shopName).append('\n').append(text);
+		}
+	}
+
+	/**
+	 * Writes the roster for the whole week to the provided sink: the shop's name,
+	 * then each day in the format of getRosterForDay. Only one day is locked at a
+	 * time.
+	 */
+	public void writeRoster(Appendable out) throws IOException {
+		out.append(_shopName).append('\n');
+		_weeklyRoster.writeTo(out);
+	}
+
+	/**
+	 * Passes every shift in the roster to the provided visitor, in order of day
+	 * and then start time.
+	 */
+	public void visitShifts(ShiftVisitor visitor) {
+		_weeklyRoster.visitShifts(visitor);
+	}
+
+	/**
+	 * Returns the whole roster as text: the shop's name followed by each day's
+	 * roster. Days which have not changed since they were last displayed reuse
+	 * their previous text.
+	 */
+	public String displayRoster() {
+		return _shopName + "\n" + _weeklyRoster.display();
+	}
+
+	/**
+	 * Returns the staffing issues with the roster as text, one line per issue, or
+	 * a line saying there are none. Days which have not changed since they were
+	 * last reported reuse their previous text.
+	 */
+	public String reportRosterIssues() {
+		String issues = _weeklyRoster.reportIssues();
+		if (issues.isEmpty()) {
+			return "No roster issues\n";
+		} else {
+			return issues;
+		}
+	}
 }
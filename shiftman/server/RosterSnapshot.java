@@ -0,0 +1,407 @@
+package shiftman.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import shiftman.server.WeeklyRoster.Days;
+
+/**
+ * An immutable, point-in-time copy of the results of every query on a RosterManager. A snapshot
+ * is built by the writer which made the latest change, while no other change can be made, and is
+ * then shared between any number of readers without further locking. Each snapshot records the
+ * version of the roster it was taken from.
+ *
+ * <p>A snapshot is built from the previous one: only the days and workers a change touched are
+ * rendered again, and everything else is shared with the previous snapshot. The week's staffing
+ * lists are kept per day, and joined the first time each is asked for.
+ *
+ * <p>Each worker's rosters and assignment state are held in an IdTable, a tree indexed by worker
+ * id, so that a change copies only the paths to the workers it touched. Workers' ids by name are
+ * held in one map shared by every snapshot built from the same first snapshot, which is only ever
+ * added to, and a snapshot ignores any id registered after it was taken. The lists of registered
+ * and unassigned staff are sorted the first time each is asked for, and shared with the next
+ * snapshot unless the change altered them, so registering staff one at a time does not render
+ * the whole staff list for every registration.
+ *
+ * <p>As with RosterManager's own queries, each query returns a new list, which the caller may
+ * change without affecting the snapshot.
+ */
+public class RosterSnapshot {
+	private final long _version;
+	private final String _shopName;
+	private final Map<Days, List<String>> _dayRosters;
+	private final Map<Days, List<String>> _dayWithoutManagers;
+	private final Map<Days, List<String>> _dayUnderstaffed;
+	private final Map<Days, List<String>> _dayOverStaffed;
+	private final Map<String, Integer> _idsByName;
+	private final int _idLimit;
+	private final IdTable _workers;
+	private volatile Worker[] _sortedStaff;
+	private volatile List<String> _unassignedStaff;
+	private volatile List<String> _withoutManagers;
+	private volatile List<String> _understaffed;
+	private volatile List<String> _overStaffed;
+
+	/**
+	 * A worker's rosters and whether they were assigned, at the time of a
+	 * snapshot.
+	 */
+	private static class WorkerEntry {
+		private final Worker _worker;
+		private final List<String> _roster;
+		private final List<String> _managed;
+		private final boolean _assigned;
+
+		private WorkerEntry(Worker worker, List<String> roster, List<String> managed, boolean assigned) {
+			_worker = worker;
+			_roster = roster;
+			_managed = managed;
+			_assigned = assigned;
+		}
+	}
+
+	/**
+	 * An immutable table of values indexed by worker id, held as a tree of nodes
+	 * of 32 slots. Setting a value copies only the nodes on the path to its slot,
+	 * and the new table shares every other node with the one it was made from.
+	 */
+	private static class IdTable {
+		private static final int BITS = 5;
+		private static final int WIDTH = 1 << BITS;
+		private static final int MASK = WIDTH - 1;
+		private final Object[] _root;
+		private final int _shift;
+
+		private IdTable(Object[] root, int shift) {
+			_root = root;
+			_shift = shift;
+		}
+
+		/**
+		 * Creates a table holding each of the provided values at its index.
+		 */
+		private static IdTable of(Object[] values) {
+			Object[] level = chunk(values);
+			int shift = 0;
+			while (level.length > 1) {
+				level = chunk(level);
+				shift += BITS;
+			}
+			return new IdTable(level.length == 0 ? new Object[WIDTH] : (Object[]) level[0], shift);
+		}
+
+		/**
+		 * Returns the provided values split into nodes of WIDTH slots.
+		 */
+		private static Object[] chunk(Object[] values) {
+			Object[] nodes = new Object[(values.length + MASK) >>> BITS];
+			for (int i = 0; i < nodes.length; i++) {
+				Object[] node = new Object[WIDTH];
+				System.arraycopy(values, i << BITS, node, 0, Math.min(WIDTH, values.length - (i << BITS)));
+				nodes[i] = node;
+			}
+			return nodes;
+		}
+
+		/**
+		 * Returns the value at the provided id, or null if there is none.
+		 */
+		private Object get(int id) {
+			if (id < 0 || (id >>> _shift) >>> BITS != 0) {
+				return null;
+			}
+			Object[] node = _root;
+			for (int shift = _shift; shift > 0; shift -= BITS) {
+				node = (Object[]) node[(id >>> shift) & MASK];
+				if (node == null) {
+					return null;
+				}
+			}
+			return node[id & MASK];
+		}
+
+		/**
+		 * Returns a table holding the provided value at the provided id, and
+		 * otherwise the same values as this table.
+		 */
+		private IdTable with(int id, Object value) {
+			Object[] root = _root;
+			int shift = _shift;
+			while ((id >>> shift) >>> BITS != 0) {
+				Object[] grown = new Object[WIDTH];
+				grown[0] = root;
+				root = grown;
+				shift += BITS;
+			}
+			return new IdTable(with(root, shift, id, value), shift);
+		}
+
+		/**
+		 * Returns a copy of the provided node, which may be null, holding the
+		 * provided value at the provided id below it.
+		 */
+		private static Object[] with(Object[] node, int shift, int id, Object value) {
+			Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+			int slot = (id >>> shift) & MASK;
+			if (shift == 0) {
+				copy[slot] = value;
+			} else {
+				copy[slot] = with((Object[]) copy[slot], shift - BITS, id, value);
+			}
+			return copy;
+		}
+	}
+
+	/**
+	 * Creates a snapshot of the whole of the provided roster and staff. The caller
+	 * must hold the locks which prevent either of them from changing.
+	 */
+	public RosterSnapshot(long version, String shopName, WeeklyRoster weeklyRoster, Workers staff) {
+		this(null, version, shopName, weeklyRoster, staff, Arrays.asList(Days.values()), staff.getWorkers(), true,
+				true);
+	}
+
+	/**
+	 * Creates a snapshot from the provided previous snapshot, rendering again only
+	 * the provided days and workers, and adding any staff registered since. The
+	 * registered staff are listed again if staffChanged, and the unassigned staff
+	 * if unassignedChanged. Renders everything if previous is null. The caller
+	 * must hold the locks which prevent the roster and staff from changing.
+	 */
+	public RosterSnapshot(RosterSnapshot previous, long version, String shopName, WeeklyRoster weeklyRoster,
+			Workers staff, Collection<Days> days, Collection<Worker> workers, boolean staffChanged,
+			boolean unassignedChanged) {
+		_version = version;
+		_shopName = shopName;
+		if (previous == null) {
+			_dayRosters = new EnumMap<Days, List<String>>(Days.class);
+			_dayWithoutManagers = new EnumMap<Days, List<String>>(Days.class);
+			_dayUnderstaffed = new EnumMap<Days, List<String>>(Days.class);
+			_dayOverStaffed = new EnumMap<Days, List<String>>(Days.class);
+		} else {
+			_dayRosters = new EnumMap<Days, List<String>>(previous._dayRosters);
+			_dayWithoutManagers = new EnumMap<Days, List<String>>(previous._dayWithoutManagers);
+			_dayUnderstaffed = new EnumMap<Days, List<String>>(previous._dayUnderstaffed);
+			_dayOverStaffed = new EnumMap<Days, List<String>>(previous._dayOverStaffed);
+		}
+		for (Days d : days) {
+			renderDay(d, weeklyRoster.getDailyRoster(d));
+		}
+		_idLimit = staff.nextId();
+		if (previous == null) {
+			_idsByName = new ConcurrentHashMap<String, Integer>();
+			Object[] entries = new Object[_idLimit];
+			for (int id = 0; id < _idLimit; id++) {
+				Worker w = staff.getWorker(id);
+				if (w != null) {
+					_idsByName.putIfAbsent(w.toString(), id);
+					entries[id] = render(w, weeklyRoster, staff);
+				}
+			}
+			_workers = IdTable.of(entries);
+		} else {
+			_idsByName = previous._idsByName;
+			IdTable entries = previous._workers;
+			for (int id = previous._idLimit; id < _idLimit; id++) {
+				Worker w = staff.getWorker(id);
+				if (w != null) {
+					_idsByName.putIfAbsent(w.toString(), id);
+					entries = entries.with(id, new WorkerEntry(w, null, null, staff.isAssigned(w)));
+				}
+			}
+			for (Worker w : workers) {
+				if (w.getId() >= 0 && w.getId() < _idLimit) {
+					entries = entries.with(w.getId(), render(w, weeklyRoster, staff));
+				}
+			}
+			_workers = entries;
+			if (!staffChanged) {
+				_sortedStaff = previous._sortedStaff;
+			}
+			if (!unassignedChanged) {
+				_unassignedStaff = previous._unassignedStaff;
+			}
+			if (days.isEmpty()) {
+				_withoutManagers = previous._withoutManagers;
+				_understaffed = previous._understaffed;
+				_overStaffed = previous._overStaffed;
+			}
+		}
+	}
+
+	/**
+	 * Renders the roster and staffing lists of the provided day.
+	 */
+	private void renderDay(Days day, DailyRoster dailyRoster) {
+		List<String> daysRoster = new ArrayList<String>();
+		daysRoster.add(_shopName);
+		daysRoster.addAll(dailyRoster.toStrings());
+		if (daysRoster.size() <= 2) {
+			daysRoster.clear();
+		}
+		_dayRosters.put(day, Collections.unmodifiableList(daysRoster));
+		_dayWithoutManagers.put(day, dailyRoster.shiftsWithoutManagers());
+		_dayUnderstaffed.put(day, dailyRoster.understaffedShifts());
+		_dayOverStaffed.put(day, dailyRoster.overStaffedShifts());
+	}
+
+	/**
+	 * Renders the rosters and assignment state of the provided worker.
+	 */
+	private static WorkerEntry render(Worker worker, WeeklyRoster weeklyRoster, Workers staff) {
+		return new WorkerEntry(worker, Collections.unmodifiableList(weeklyRoster.getRosterForWorker(worker)),
+				Collections.unmodifiableList(weeklyRoster.getShiftsManagedBy(worker)), staff.isAssigned(worker));
+	}
+
+	/**
+	 * Returns the provided per-day lists joined in day order.
+	 */
+	private static List<String> join(Map<Days, List<String>> dayLists) {
+		List<String> joined = new ArrayList<String>();
+		for (Days d : Days.values()) {
+			joined.addAll(dayLists.get(d));
+		}
+		return Collections.unmodifiableList(joined);
+	}
+
+	/**
+	 * Returns the staff registered at the time of this snapshot, in their natural
+	 * order. Workers which compare equal keep the order in which they were
+	 * registered, as in Workers.
+	 */
+	private Worker[] sortedStaff() {
+		Worker[] sorted = _sortedStaff;
+		if (sorted == null) {
+			List<Worker> registered = new ArrayList<Worker>(_idLimit);
+			for (int id = 0; id < _idLimit; id++) {
+				WorkerEntry entry = (WorkerEntry) _workers.get(id);
+				if (entry != null) {
+					registered.add(entry._worker);
+				}
+			}
+			sorted = registered.toArray(new Worker[registered.size()]);
+			Arrays.sort(sorted);
+			_sortedStaff = sorted;
+		}
+		return sorted;
+	}
+
+	/**
+	 * Returns the version of the roster this snapshot was taken from.
+	 */
+	public long getVersion() {
+		return _version;
+	}
+
+	/**
+	 * Returns the names of all registered staff at the time of this snapshot.
+	 */
+	public List<String> getStaff() {
+		Worker[] sorted = sortedStaff();
+		List<String> staffList = new ArrayList<String>(sorted.length);
+		for (Worker w : sorted) {
+			staffList.add(w.toString());
+		}
+		return staffList;
+	}
+
+	/**
+	 * Returns the names of all staff which were not assigned to any shifts at the
+	 * time of this snapshot.
+	 */
+	public List<String> getUnassignedStaff() {
+		List<String> unassignedStaff = _unassignedStaff;
+		if (unassignedStaff == null) {
+			List<String> unassigned = new ArrayList<String>();
+			for (Worker w : sortedStaff()) {
+				if (!((WorkerEntry) _workers.get(w.getId()))._assigned) {
+					unassigned.add(w.toString());
+				}
+			}
+			unassignedStaff = Collections.unmodifiableList(unassigned);
+			_unassignedStaff = unassignedStaff;
+		}
+		return new ArrayList<String>(unassignedStaff);
+	}
+
+	/**
+	 * Returns all shifts which had no manager assigned at the time of this
+	 * snapshot.
+	 */
+	public List<String> shiftsWithoutManagers() {
+		List<String> withoutManagers = _withoutManagers;
+		if (withoutManagers == null) {
+			withoutManagers = join(_dayWithoutManagers);
+			_withoutManagers = withoutManagers;
+		}
+		return new ArrayList<String>(withoutManagers);
+	}
+
+	/**
+	 * Returns all shifts which were understaffed at the time of this snapshot.
+	 */
+	public List<String> understaffedShifts() {
+		List<String> understaffed = _understaffed;
+		if (understaffed == null) {
+			understaffed = join(_dayUnderstaffed);
+			_understaffed = understaffed;
+		}
+		return new ArrayList<String>(understaffed);
+	}
+
+	/**
+	 * Returns all shifts which were overstaffed at the time of this snapshot.
+	 */
+	public List<String> overStaffedShifts() {
+		List<String> overStaffed = _overStaffed;
+		if (overStaffed == null) {
+			overStaffed = join(_dayOverStaffed);
+			_overStaffed = overStaffed;
+		}
+		return new ArrayList<String>(overStaffed);
+	}
+
+	/**
+	 * Returns the shifts the named worker was assigned to at the time of this
+	 * snapshot. Returns an empty list if the worker was not registered.
+	 */
+	public List<String> getRosterForWorker(String workerName) {
+		WorkerEntry entry = forWorker(workerName);
+		return entry == null || entry._roster == null ? new ArrayList<String>() : new ArrayList<String>(entry._roster);
+	}
+
+	/**
+	 * Returns the shifts the named worker was managing at the time of this
+	 * snapshot. Returns an empty list if the worker was not registered.
+	 */
+	public List<String> getShiftsManagedBy(String workerName) {
+		WorkerEntry entry = forWorker(workerName);
+		return entry == null || entry._managed == null ? new ArrayList<String>()
+				: new ArrayList<String>(entry._managed);
+	}
+
+	/**
+	 * Returns the named worker's entry, or null if the worker was not registered
+	 * at the time of this snapshot.
+	 */
+	private WorkerEntry forWorker(String workerName) {
+		Integer id = _idsByName.get(workerName);
+		if (id == null || id >= _idLimit) {
+			return null;
+		}
+		return (WorkerEntry) _workers.get(id);
+	}
+
+	/**
+	 * Returns the roster for the provided day at the time of this snapshot.
+	 */
+	public List<String> getRosterForDay(String dayOfWeek) {
+		return new ArrayList<String>(_dayRosters.get(WeeklyRoster.findDay(dayOfWeek)));
+	}
+}
@@ -0,0 +1,22 @@
+package shiftman.server;
+
+/**
+ * A backing store for rosters which are not currently held in memory by a MultiShopServer. A
+ * roster is saved when it is evicted from memory and loaded again the next time its shop is used.
+ * Saves are made outside the server's resident set lock, so a slow save only delays calls on the
+ * shop being saved. A save which fails should throw an unchecked exception.
+ */
+public interface RosterStore {
+
+	/**
+	 * Returns the stored roster for the provided shop, or null if no roster has
+	 * been stored for it.
+	 */
+	public RosterManager load(String shopName);
+
+	/**
+	 * Stores the provided roster for the provided shop, replacing any roster
+	 * previously stored for it.
+	 */
+	public void save(String shopName, RosterManager roster);
+}
@@ -1,23 +1,78 @@
 package shiftman.server;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * This class creates an object representing one shift. It also stores basic information about this
  * shift and allows basic tests of the shift relating to this information. 
+ * 
+ * <p>The workers assigned to a shift are few, so they are held in an array kept in their natural
+ * order as they are assigned, rather than in a Workers collection with its maps and bitset. A
+ * worker assigned more than once is held once for each assignment.
  */
 public class Shift implements Comparable<Shift> {
 	private TimePeriod _shiftTime = new TimePeriod();
 	private int _minimumWorkers;
-	private Workers _shiftWorkers = new Workers();
+	private static final Worker[] NO_WORKERS = new Worker[0];
+	private Worker[] _shiftWorkers = NO_WORKERS;
 	private Worker _manager;
 	private int workerCount = 0;
 	private String _day;
+	private static final int INVALID_COUNT = Integer.MIN_VALUE;
+	private String _string;
 
 	/**
 	 * Creates a new shift object with the provided parameters.
 	 */
-	public Shift(String day, String startTime, String endTime, String minimumWorkers) throws InvalidTimeException {
+	public Shift(String day, String startTime, String endTime, String minimumWorkers)
+			throws InvalidTimeException, InvalidCountException {
 		_shiftTime.setTimes(startTime, endTime);
-		_minimumWorkers = Integer.parseInt(minimumWorkers);
+		_minimumWorkers = parseCount(minimumWorkers);
+		if (_minimumWorkers == INVALID_COUNT) {
+			throw new InvalidCountException("ERROR: Minimum workers provided: " + minimumWorkers + " is invalid");
+		}
+		_day = day;
+	}
+
+	/**
+	 * Parses the provided string as a whole number, optionally preceded by a minus
+	 * sign. Returns INVALID_COUNT if it is not a number which fits in an int.
+	 */
+	private static int parseCount(String count) {
+		if (count == null || count.isEmpty()) {
+			return INVALID_COUNT;
+		}
+		boolean negative = count.charAt(0) == '-';
+		int start = negative ? 1 : 0;
+		if (start == count.length() || count.length() - start > 10) {
+			return INVALID_COUNT;
+		}
+		long value = 0;
+		for (int i = start; i < count.length(); i++) {
+			char c = count.charAt(i);
+			if (c < '0' || c > '9') {
+				return INVALID_COUNT;
+			}
+			value = 10 * value + (c - '0');
+		}
+		if (negative) {
+			value = -value;
+		}
+		if (value <= INVALID_COUNT || value > Integer.MAX_VALUE) {
+			return INVALID_COUNT;
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Creates a new shift object from times given as minutes past midnight. The
+	 * times are assumed to be valid, as when restoring a previously created shift.
+	 */
+	public Shift(String day, int startMinute, int endMinute, int minimumWorkers) {
+		_shiftTime.setMinutes(startMinute, endMinute);
+		_minimumWorkers = minimumWorkers;
 		_day = day;
 	}
 
@@ -31,6 +86,57 @@ public class Shift implements Comparable<Shift> {
 		return _shiftTime.testOverlap(compShift._shiftTime);
 	}
 
+	/**
+	 * Returns the start time of this shift as minutes past midnight.
+	 */
+	public int getStartMinute() {
+		return _shiftTime.getStartMinute();
+	}
+
+	/**
+	 * Returns the end time of this shift as minutes past midnight.
+	 */
+	public int getEndMinute() {
+		return _shiftTime.getEndMinute();
+	}
+
+	/**
+	 * Returns the minimum number of workers this shift requires.
+	 */
+	public int getMinimumWorkers() {
+		return _minimumWorkers;
+	}
+
+	/**
+	 * Returns the number of workers, not including the manager, assigned to this
+	 * shift.
+	 */
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	/**
+	 * Returns the manager of this shift, or null if it has no manager.
+	 */
+	public Worker getManager() {
+		return _manager;
+	}
+
+	/**
+	 * Returns the workers assigned to this shift, in their natural order.
+	 */
+	public List<Worker> getWorkers() {
+		return new ArrayList<Worker>(Arrays.asList(_shiftWorkers).subList(0, workerCount));
+	}
+
+	/**
+	 * Returns the key identifying this shift's time period, as given by
+	 * TimePeriod's toKey.
+	 */
+	public int getKey() {
+		return _shiftTime.toKey();
+	}
+
 	/**
 	 * Tests if this shift is equal to the one represented by the input parameters.
 	 */
@@ -47,15 +153,45 @@ public class Shift implements Comparable<Shift> {
 	 * manager, adding one to the worker count.
 	 */
 	public void assignStaff(Worker worker, boolean isManager) throws ManagerAssignedException {
+		testAssignable(isManager);
 		if (isManager) {
-			if (_manager == null) {
-				_manager = worker;
+			_manager = worker;
+		} else {
+			addWorker(worker);
+		}
+	}
+
+	/**
+	 * Inserts the provided worker into this shift's workers, after any which
+	 * compare equal to it, and adds one to the worker count.
+	 */
+	private void addWorker(Worker worker) {
+		int low = 0;
+		int high = workerCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (_shiftWorkers[mid].compareTo(worker) <= 0) {
+				low = mid + 1;
 			} else {
-				throw new ManagerAssignedException("ERROR: " + _manager.toString() + " already manages this shift");
+				high = mid;
 			}
-		} else {
-			_shiftWorkers.addWorker(worker);
-			workerCount++;
+		}
+		if (workerCount == _shiftWorkers.length) {
+			_shiftWorkers = Arrays.copyOf(_shiftWorkers, Math.max(4, 2 * workerCount));
+		}
+		System.arraycopy(_shiftWorkers, low, _shiftWorkers, low + 1, workerCount - low);
+		_shiftWorkers[low] = worker;
+		workerCount++;
+	}
+
+	/**
+	 * Tests whether a worker or manager may be assigned to this shift, throwing a
+	 * ManagerAssignedException if a manager is to be assigned and this shift
+	 * already has one.
+	 */
+	public void testAssignable(boolean isManager) throws ManagerAssignedException {
+		if (isManager && _manager != null) {
+			throw new ManagerAssignedException("ERROR: " + _manager.toString() + " already manages this shift");
 		}
 	}
 
@@ -108,7 +244,12 @@ public class Shift implements Comparable<Shift> {
 	 * Returns a string to represent this shift in the format: day[HH:MM]
 	 */
 	public String toString() {
-		return _day + _shiftTime.toFormattedString();
+		String string = _string;
+		if (string == null) {
+			string = _day + _shiftTime.toFormattedString();
+			_string = string;
+		}
+		return string;
 	}
 
 	/**
@@ -116,12 +257,35 @@ public class Shift implements Comparable<Shift> {
 	 * Manager: family name, given name [list of worker names separated by ", "]
 	 */
 	public String getFormattedDescription() {
+		StringBuilder builder = new StringBuilder();
+		appendFormattedDescription(builder);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the description of this shift given by getFormattedDescription to
+	 * the provided builder.
+	 */
+	public void appendFormattedDescription(StringBuilder builder) {
+		builder.append(toString());
 		if (_manager == null) {
-			return _day + _shiftTime.toFormattedString() + " [No manager assigned]" + " "
-					+ _shiftWorkers.toList();
+			builder.append(" [No manager assigned]");
+		} else {
+			builder.append(" Manager:");
+			_manager.appendReverseTo(builder);
+		}
+		builder.append(' ');
+		if (workerCount > 0) {
+			builder.append('[');
+			for (int i = 0; i < workerCount; i++) {
+				if (i > 0) {
+					builder.append(", ");
+				}
+				_shiftWorkers[i].appendTo(builder);
+			}
+			builder.append(']');
 		} else {
-			return _day + _shiftTime.toFormattedString() + " Manager:" + _manager.toStringReverse() + " "
-					+ _shiftWorkers.toList();
+			builder.append("[No workers assigned]");
 		}
 	}
 
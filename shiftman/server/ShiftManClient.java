@@ -0,0 +1,264 @@
+package shiftman.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A ShiftMan which calls a remote ShiftManEndpoint over one TCP connection. The client may be
+ * shared between threads: each call's request is written as soon as it is made, without waiting
+ * for earlier calls' responses, and a reader thread hands responses back to their callers in the
+ * order the requests were sent.
+ *
+ * <p>If the connection fails, every call in progress and every later call throws an
+ * UncheckedIOException. A call whose request would be longer than
+ * ShiftManProtocol.MAX_REQUEST_FRAME throws an IllegalArgumentException without being sent.
+ */
+public class ShiftManClient implements ShiftMan, Closeable {
+	private final SocketChannel _channel;
+	private final Object _writeLock = new Object();
+	private final Queue<CompletableFuture<ByteBuffer>> _pending = new ConcurrentLinkedQueue<CompletableFuture<ByteBuffer>>();
+	private final Thread _reader;
+	private IOException _failure;
+
+	/**
+	 * Connects to the endpoint at the provided address.
+	 */
+	public ShiftManClient(InetSocketAddress address) throws IOException {
+		_channel = SocketChannel.open(address);
+		_channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		_reader = new Thread(new Runnable() {
+			public void run() {
+				readResponses();
+			}
+		}, "shiftman-client");
+		_reader.setDaemon(true);
+		_reader.start();
+	}
+
+	/**
+	 * Closes the connection. Calls still waiting for a response fail.
+	 */
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+
+	/**
+	 * Sends the provided request frame and waits for its response.
+	 */
+	private ByteBuffer call(ShiftManProtocol.Encoder request) {
+		request.endFrame();
+		if (request.frameLength() > ShiftManProtocol.MAX_REQUEST_FRAME) {
+			throw new IllegalArgumentException("ERROR: Request is too large to send");
+		}
+		ByteBuffer frame = request.toBuffer();
+		CompletableFuture<ByteBuffer> response = new CompletableFuture<ByteBuffer>();
+		synchronized (_writeLock) {
+			if (_failure != null) {
+				throw new UncheckedIOException(_failure);
+			}
+			_pending.add(response);
+			try {
+				while (frame.hasRemaining()) {
+					_channel.write(frame);
+				}
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		try {
+			return response.join();
+		} catch (CompletionException e) {
+			throw new UncheckedIOException((IOException) e.getCause());
+		}
+	}
+
+	/**
+	 * The reader thread's loop: reads response frames and completes the oldest
+	 * waiting call with each.
+	 */
+	private void readResponses() {
+		ByteBuffer in = ByteBuffer.allocate(4096);
+		try {
+			while (true) {
+				if (_channel.read(in) < 0) {
+					throw new IOException("Connection closed by endpoint");
+				}
+				in.flip();
+				while (in.remaining() >= 4) {
+					int length = in.getInt(in.position());
+					if (length <= 0 || length > ShiftManProtocol.MAX_FRAME) {
+						throw new IOException("Invalid response length from endpoint: " + length);
+					}
+					if (in.remaining() < 4 + length) {
+						break;
+					}
+					in.getInt();
+					ByteBuffer response = ByteBuffer.allocate(length);
+					int limit = in.limit();
+					in.limit(in.position() + length);
+					response.put(in);
+					in.limit(limit);
+					response.flip();
+					CompletableFuture<ByteBuffer> waiting = _pending.poll();
+					if (waiting == null) {
+						throw new IOException("Response from endpoint without a request");
+					}
+					waiting.complete(response);
+				}
+				if (in.remaining() >= 4 && in.capacity() < 4 + in.getInt(in.position())) {
+					ByteBuffer larger = ByteBuffer.allocate(4 + in.getInt(in.position()));
+					larger.put(in);
+					in = larger;
+				} else {
+					in.compact();
+				}
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records the provided failure and fails every waiting call. Later calls fail
+	 * immediately.
+	 */
+	private void fail(IOException e) {
+		synchronized (_writeLock) {
+			if (_failure == null) {
+				_failure = e;
+			}
+		}
+		CompletableFuture<ByteBuffer> pending;
+		while ((pending = _pending.poll()) != null) {
+			pending.completeExceptionally(e);
+		}
+		try {
+			_channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	/**
+	 * Starts a request frame for the provided method.
+	 */
+	private static ShiftManProtocol.Encoder request(byte method) {
+		ShiftManProtocol.Encoder request = new ShiftManProtocol.Encoder();
+		request.beginFrame();
+		request.putByte(method);
+		return request;
+	}
+
+	@Override
+	public String newRoster(String shopName) {
+		ShiftManProtocol.Encoder request = request(ShiftManProtocol.NEW_ROSTER);
+		request.putString(shopName);
+		return ShiftManProtocol.getStatus(call(request));
+	}
+
+	@Override
+	public String setWorkingHours(String dayOfWeek, String startTime, String endTime) {
+		ShiftManProtocol.Encoder request = request(ShiftManProtocol.SET_WORKING_HOURS);
+		request.putString(dayOfWeek);
+		request.putString(startTime);
+		request.putString(endTime);
+		return ShiftManProtocol.getStatus(call(request));
+	}
+
+	@Override
+	public String addShift(String dayOfWeek, String startTime, String endTime, String minimumWorkers) {
+		ShiftManProtocol.Encoder request = request(ShiftManProtocol.ADD_SHIFT);
+		request.putString(dayOfWeek);
+		request.putString(startTime);
+		request.putString(endTime);
+		request.putString(minimumWorkers);
+		return ShiftManProtocol.getStatus(call(request));
+	}
+
+	@Override
+	public String registerStaff(String givenname, String familyName) {
+		ShiftManProtocol.Encoder request = request(ShiftManProtocol.REGISTER_STAFF);
+		request.putString(givenname);
+		request.putString(familyName);
+		return ShiftManProtocol.getStatus(call(request));
+	}
+
+	@Override
+	public String assignStaff(String dayOfWeek, String startTime, String endTime, String givenName,
+			String familyName, boolean isManager) {
+		ShiftManProtocol.Encoder request = request(ShiftManProtocol.ASSIGN_STAFF);
+		request.putString(dayOfWeek);
+		request.putString(startTime);
+		request.putString(endTime);
+		request.putString(givenName);
+		request.putString(familyName);
+		request.putBoolean(isManager);
+		return ShiftManProtocol.getStatus(call(request));
+	}
+
+	@Override
+	public List<String> getRegisteredStaff() {
+		return ShiftManProtocol.getList(call(request(ShiftManProtocol.GET_REGISTERED_STAFF)));
+	}
+
+	@Override
+	public List<String> getUnassignedStaff() {
+		return ShiftManProtocol.getList(call(request(ShiftManProtocol.GET_UNASSIGNED_STAFF)));
+	}
+
+	@Override
+	public List<String> shiftsWithoutManagers() {
+		return ShiftManProtocol.getList(call(request(ShiftManProtocol.SHIFTS_WITHOUT_MANAGERS)));
+	}
+
+	@Override
+	public List<String> understaffedShifts() {
+		return ShiftManProtocol.getList(call(request(ShiftManProtocol.UNDERSTAFFED_SHIFTS)));
+	}
+
+	@Override
+	public List<String> overstaffedShifts() {
+		return ShiftManProtocol.getList(call(request(ShiftManProtocol.OVERSTAFFED_SHIFTS)));
+	}
+
+	@Override
+	public List<String> getRosterForDay(String dayOfWeek) {
+		ShiftManProtocol.Encoder request = request(ShiftManProtocol.GET_ROSTER_FOR_DAY);
+		request.putString(dayOfWeek);
+		return ShiftManProtocol.getList(call(request));
+	}
+
+	@Override
+	public List<String> getRosterForWorker(String workerName) {
+		ShiftManProtocol.Encoder request = request(ShiftManProtocol.GET_ROSTER_FOR_WORKER);
+		request.putString(workerName);
+		return ShiftManProtocol.getList(call(request));
+	}
+
+	@Override
+	public List<String> getShiftsManagedBy(String managerName) {
+		ShiftManProtocol.Encoder request = request(ShiftManProtocol.GET_SHIFTS_MANAGED_BY);
+		request.putString(managerName);
+		return ShiftManProtocol.getList(call(request));
+	}
+
+	@Override
+	public String reportRosterIssues() {
+		return ShiftManProtocol.getStatus(call(request(ShiftManProtocol.REPORT_ROSTER_ISSUES)));
+	}
+
+	@Override
+	public String displayRoster() {
+		return ShiftManProtocol.getStatus(call(request(ShiftManProtocol.DISPLAY_ROSTER)));
+	}
+}
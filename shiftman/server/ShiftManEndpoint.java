@@ -0,0 +1,405 @@
+package shiftman.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Serves a ShiftMan over TCP using the ShiftManProtocol. A single selector thread accepts
+ * connections and reads and writes every connection without blocking, so one endpoint can hold
+ * many thousands of idle or slow clients.
+ *
+ * <p>Requests are executed on an Executor rather than the selector thread, as a call may wait on
+ * roster locks or on a RosterLog commit. Each connection's requests are run one at a time in the
+ * order received and their responses are queued in that order, so clients may pipeline requests.
+ * Requests on different connections run in parallel. A connection which is not reading its
+ * responses stops being read from, and stops running the requests it has already sent, until its
+ * queued responses drain. A connection whose requests the executor rejects is closed.
+ *
+ * <p>If the ShiftMan is a ShiftManServer, the executor must not be the server's fan-out executor,
+ * and the server refuses to fan out on it while the endpoint is open. See ShiftManServer.setFanOut.
+ */
+public class ShiftManEndpoint implements Closeable {
+	private static final int MAX_QUEUED_OUTPUT = 1024 * 1024;
+	private static final int INPUT_BUFFER = 1024;
+
+	private final ShiftMan _target;
+	private final Executor _executor;
+	private final ExecutorService _ownedExecutor;
+	private final Selector _selector;
+	private final ServerSocketChannel _serverChannel;
+	private final Queue<Connection> _flushes = new ConcurrentLinkedQueue<Connection>();
+	private final Thread _selectorThread;
+	private volatile boolean _closed;
+
+	/**
+	 * Creates an endpoint serving the provided ShiftMan at the provided address,
+	 * running requests on a pool of threads owned by the endpoint.
+	 */
+	public ShiftManEndpoint(ShiftMan target, InetSocketAddress address) throws IOException {
+		this(target, address, Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors()), true);
+	}
+
+	/**
+	 * Creates an endpoint serving the provided ShiftMan at the provided address,
+	 * running requests on the provided executor. The executor is not shut down
+	 * when the endpoint is closed. Throws IllegalArgumentException if the target
+	 * is a ShiftManServer which fans out queries on the same executor.
+	 */
+	public ShiftManEndpoint(ShiftMan target, InetSocketAddress address, Executor executor) throws IOException {
+		this(target, address, executor, false);
+	}
+
+	private ShiftManEndpoint(ShiftMan target, InetSocketAddress address, Executor executor, boolean owned)
+			throws IOException {
+		_target = target;
+		_executor = executor;
+		_ownedExecutor = owned ? (ExecutorService) executor : null;
+		if (target instanceof ShiftManServer) {
+			((ShiftManServer) target).addRequestExecutor(executor);
+		}
+		Selector selector = null;
+		ServerSocketChannel serverChannel = null;
+		try {
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(address, 1024);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			if (serverChannel != null) {
+				serverChannel.close();
+			}
+			if (selector != null) {
+				selector.close();
+			}
+			if (target instanceof ShiftManServer) {
+				((ShiftManServer) target).removeRequestExecutor(executor);
+			}
+			throw e;
+		}
+		_selector = selector;
+		_serverChannel = serverChannel;
+		_selectorThread = new Thread(new Runnable() {
+			public void run() {
+				select();
+			}
+		}, "shiftman-endpoint");
+		_selectorThread.setDaemon(true);
+	}
+
+	/**
+	 * Starts accepting connections.
+	 */
+	public void start() {
+		_selectorThread.start();
+	}
+
+	/**
+	 * Returns the port this endpoint is listening on, which is useful when it was
+	 * bound to port 0.
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) _serverChannel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Stops accepting connections and closes every open connection. Requests
+	 * already running are allowed to finish, but their responses are not sent.
+	 */
+	@Override
+	public void close() throws IOException {
+		_closed = true;
+		_selector.wakeup();
+		try {
+			_selectorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (SelectionKey key : _selector.keys()) {
+			key.channel().close();
+		}
+		_selector.close();
+		if (_target instanceof ShiftManServer) {
+			((ShiftManServer) _target).removeRequestExecutor(_executor);
+		}
+		if (_ownedExecutor != null) {
+			_ownedExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * The selector thread's loop: accepts connections, reads requests and writes
+	 * queued responses until the endpoint is closed.
+	 */
+	private void select() {
+		while (!_closed) {
+			try {
+				_selector.select();
+			} catch (IOException e) {
+				return;
+			}
+			Connection flush;
+			while ((flush = _flushes.poll()) != null) {
+				flush.flush();
+			}
+			Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid()) {
+					continue;
+				}
+				if (key.isAcceptable()) {
+					accept();
+				} else {
+					Connection connection = (Connection) key.attachment();
+					if (key.isReadable()) {
+						connection.read();
+					}
+					if (key.isValid() && key.isWritable()) {
+						connection.flush();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accepts every pending connection. A connection which cannot be set up is
+	 * closed.
+	 */
+	private void accept() {
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = _serverChannel.accept();
+			} catch (IOException e) {
+				return;
+			}
+			if (channel == null) {
+				return;
+			}
+			try {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Connection connection = new Connection(channel);
+				connection._key = channel.register(_selector, SelectionKey.OP_READ, connection);
+			} catch (IOException e) {
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * One client connection. The input buffer is only used by the selector thread.
+	 * It grows, up to one request frame, only once it is full of a request still
+	 * arriving, and shrinks back once that request is read, so a client declaring
+	 * a long frame holds no more memory than it has sent. The request queue and
+	 * output buffer are guarded by the connection.
+	 */
+	private class Connection implements Runnable {
+		private final SocketChannel _channel;
+		private SelectionKey _key;
+		private ByteBuffer _in = ByteBuffer.allocate(INPUT_BUFFER);
+		private final Queue<ByteBuffer> _requests = new ArrayDeque<ByteBuffer>();
+		private boolean _running;
+		private ByteBuffer _out = ByteBuffer.allocate(1024);
+
+		private Connection(SocketChannel channel) {
+			_channel = channel;
+		}
+
+		/**
+		 * Reads what is available from the channel and queues every complete
+		 * request. Closes this connection if a request frame is longer than
+		 * ShiftManProtocol.MAX_REQUEST_FRAME. Called on the selector thread.
+		 */
+		private void read() {
+			try {
+				if (_channel.read(_in) < 0) {
+					close();
+					return;
+				}
+			} catch (IOException e) {
+				close();
+				return;
+			}
+			_in.flip();
+			while (_in.remaining() >= 4) {
+				int length = _in.getInt(_in.position());
+				if (length <= 0 || length > ShiftManProtocol.MAX_REQUEST_FRAME) {
+					close();
+					return;
+				}
+				if (_in.remaining() < 4 + length) {
+					break;
+				}
+				_in.getInt();
+				ByteBuffer request = ByteBuffer.allocate(length);
+				int limit = _in.limit();
+				_in.limit(_in.position() + length);
+				request.put(_in);
+				_in.limit(limit);
+				request.flip();
+				submit(request);
+			}
+			_in.compact();
+			if (!_in.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.min(4 + _in.getInt(0), 2 * _in.capacity()));
+				_in.flip();
+				larger.put(_in);
+				_in = larger;
+			} else if (_in.position() == 0 && _in.capacity() > INPUT_BUFFER) {
+				_in = ByteBuffer.allocate(INPUT_BUFFER);
+			}
+		}
+
+		/**
+		 * Queues the provided request, and schedules this connection to run if it
+		 * is not running already.
+		 */
+		private void submit(ByteBuffer request) {
+			synchronized (this) {
+				_requests.add(request);
+			}
+			schedule();
+		}
+
+		/**
+		 * Schedules this connection to run if it has requests queued, is not
+		 * running already and has room for their responses. Closes this
+		 * connection if the executor rejects it. Called on the selector thread.
+		 */
+		private void schedule() {
+			synchronized (this) {
+				if (_running || _requests.isEmpty() || _out.position() >= MAX_QUEUED_OUTPUT) {
+					return;
+				}
+				_running = true;
+			}
+			try {
+				_executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				synchronized (this) {
+					_requests.clear();
+					_running = false;
+				}
+				close();
+			}
+		}
+
+		/**
+		 * Runs this connection's queued requests in order, queuing each response
+		 * and asking the selector thread to send it. Stops once the queued output
+		 * reaches its limit; the selector thread schedules this connection again
+		 * when the output drains.
+		 */
+		@Override
+		public void run() {
+			while (true) {
+				ByteBuffer request;
+				synchronized (this) {
+					request = _out.position() < MAX_QUEUED_OUTPUT ? _requests.poll() : null;
+					if (request == null) {
+						_running = false;
+						return;
+					}
+				}
+				ByteBuffer response = ShiftManProtocol.invoke(_target, request);
+				if (!send(response)) {
+					_flushes.add(this);
+					_selector.wakeup();
+				}
+			}
+		}
+
+		/**
+		 * Queues the provided response and tries to write the queued output
+		 * straight away, which saves waking the selector thread when the channel
+		 * has room. Returns false if output is left for the selector thread.
+		 */
+		private synchronized boolean send(ByteBuffer response) {
+			if (_out.remaining() < response.remaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(
+						Math.max(2 * _out.capacity(), _out.position() + response.remaining()));
+				_out.flip();
+				larger.put(_out);
+				_out = larger;
+			}
+			_out.put(response);
+			try {
+				if ((_key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+					_out.flip();
+					_channel.write(_out);
+					_out.compact();
+				}
+			} catch (CancelledKeyException e) {
+				_out.clear();
+			} catch (IOException e) {
+				_out.clear();
+			}
+			return _out.position() == 0;
+		}
+
+		/**
+		 * Writes as much queued output as the channel accepts, updates the
+		 * operations the selector waits for, and resumes running queued requests
+		 * if the output has drained below its limit. Called on the selector thread.
+		 */
+		private void flush() {
+			synchronized (this) {
+				if (!_key.isValid()) {
+					return;
+				}
+				try {
+					_out.flip();
+					_channel.write(_out);
+					_out.compact();
+				} catch (IOException e) {
+					close();
+					return;
+				}
+				int ops = 0;
+				if (_out.position() > 0) {
+					ops |= SelectionKey.OP_WRITE;
+				}
+				if (_out.position() < MAX_QUEUED_OUTPUT) {
+					ops |= SelectionKey.OP_READ;
+				}
+				_key.interestOps(ops);
+			}
+			schedule();
+		}
+
+		/**
+		 * Closes this connection. Requests already queued are still run, but their
+		 * responses are discarded.
+		 */
+		private void close() {
+			_key.cancel();
+			try {
+				_channel.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
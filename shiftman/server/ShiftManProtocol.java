@@ -0,0 +1,277 @@
+package shiftman.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The request/response protocol used to call a ShiftMan over a network connection. Every message
+ * is a frame: an int length followed by that many bytes. A request frame is a byte method code
+ * followed by the method's arguments in order; a response frame is a byte result kind followed by
+ * either a single string or an int count and that many strings. Strings are an int length (-1 for
+ * null) followed by their UTF-8 bytes, and booleans a single byte.
+ *
+ * <p>Responses on a connection are sent in the order the requests were received, so a client may
+ * send several requests before reading any responses.
+ */
+public class ShiftManProtocol {
+	public static final byte NEW_ROSTER = 1;
+	public static final byte SET_WORKING_HOURS = 2;
+	public static final byte ADD_SHIFT = 3;
+	public static final byte REGISTER_STAFF = 4;
+	public static final byte ASSIGN_STAFF = 5;
+	public static final byte GET_REGISTERED_STAFF = 6;
+	public static final byte GET_UNASSIGNED_STAFF = 7;
+	public static final byte SHIFTS_WITHOUT_MANAGERS = 8;
+	public static final byte UNDERSTAFFED_SHIFTS = 9;
+	public static final byte OVERSTAFFED_SHIFTS = 10;
+	public static final byte GET_ROSTER_FOR_DAY = 11;
+	public static final byte GET_ROSTER_FOR_WORKER = 12;
+	public static final byte GET_SHIFTS_MANAGED_BY = 13;
+	public static final byte REPORT_ROSTER_ISSUES = 14;
+	public static final byte DISPLAY_ROSTER = 15;
+
+	public static final byte STATUS = 0;
+	public static final byte LIST = 1;
+	public static final int MAX_FRAME = 16 * 1024 * 1024;
+	/**
+	 * The longest request frame. A request is a method code and at most a few
+	 * short strings and a boolean, so this is far smaller than MAX_FRAME, which
+	 * bounds responses holding whole rosters.
+	 */
+	public static final int MAX_REQUEST_FRAME = 64 * 1024;
+	private static final int NULL_STRING = -1;
+
+	private ShiftManProtocol() {
+	}
+
+	/**
+	 * Decodes the provided request, without its length, calls the corresponding
+	 * method of the provided ShiftMan and returns the encoded response frame. A
+	 * RuntimeException thrown by the call, or a response longer than MAX_FRAME,
+	 * is returned as an error response instead.
+	 */
+	public static ByteBuffer invoke(ShiftMan target, ByteBuffer request) {
+		byte method = request.get();
+		Encoder out = new Encoder();
+		out.beginFrame();
+		try {
+			switch (method) {
+			case NEW_ROSTER:
+				out.putStatus(target.newRoster(getString(request)));
+				break;
+			case SET_WORKING_HOURS:
+				out.putStatus(target.setWorkingHours(getString(request), getString(request), getString(request)));
+				break;
+			case ADD_SHIFT:
+				out.putStatus(target.addShift(getString(request), getString(request), getString(request),
+						getString(request)));
+				break;
+			case REGISTER_STAFF:
+				out.putStatus(target.registerStaff(getString(request), getString(request)));
+				break;
+			case ASSIGN_STAFF:
+				out.putStatus(target.assignStaff(getString(request), getString(request), getString(request),
+						getString(request), getString(request), request.get() != 0));
+				break;
+			case GET_REGISTERED_STAFF:
+				out.putList(target.getRegisteredStaff());
+				break;
+			case GET_UNASSIGNED_STAFF:
+				out.putList(target.getUnassignedStaff());
+				break;
+			case SHIFTS_WITHOUT_MANAGERS:
+				out.putList(target.shiftsWithoutManagers());
+				break;
+			case UNDERSTAFFED_SHIFTS:
+				out.putList(target.understaffedShifts());
+				break;
+			case OVERSTAFFED_SHIFTS:
+				out.putList(target.overstaffedShifts());
+				break;
+			case GET_ROSTER_FOR_DAY:
+				out.putList(target.getRosterForDay(getString(request)));
+				break;
+			case GET_ROSTER_FOR_WORKER:
+				out.putList(target.getRosterForWorker(getString(request)));
+				break;
+			case GET_SHIFTS_MANAGED_BY:
+				out.putList(target.getShiftsManagedBy(getString(request)));
+				break;
+			case REPORT_ROSTER_ISSUES:
+				out.putStatus(target.reportRosterIssues());
+				break;
+			case DISPLAY_ROSTER:
+				out.putStatus(target.displayRoster());
+				break;
+			default:
+				out.putStatus("ERROR: Unknown request: " + method);
+				break;
+			}
+		} catch (RuntimeException e) {
+			out = encodeError(method, errorMessage(e));
+		}
+		out.endFrame();
+		if (out.frameLength() > MAX_FRAME) {
+			out = encodeError(method, "ERROR: Response is too large to send");
+			out.endFrame();
+		}
+		return out.toBuffer();
+	}
+
+	/**
+	 * Returns the error message sent for a call which threw the provided
+	 * exception, in the same form as the errors ShiftMan methods return.
+	 */
+	private static String errorMessage(RuntimeException e) {
+		String message = e.getMessage();
+		if (message == null) {
+			return "ERROR: Request could not be completed";
+		} else if (message.startsWith("ERROR: ")) {
+			return message;
+		} else {
+			return "ERROR: " + message;
+		}
+	}
+
+	/**
+	 * Returns a new frame, not yet ended, holding the provided error as a
+	 * response to the provided method: a single-entry list for methods which
+	 * return lists, or a status otherwise.
+	 */
+	private static Encoder encodeError(byte method, String error) {
+		Encoder out = new Encoder();
+		out.beginFrame();
+		if (method >= GET_REGISTERED_STAFF && method <= GET_SHIFTS_MANAGED_BY) {
+			List<String> errorString = new ArrayList<String>();
+			errorString.add(error);
+			out.putList(errorString);
+		} else {
+			out.putStatus(error);
+		}
+		return out;
+	}
+
+	/**
+	 * Reads a string written by Encoder.putString.
+	 */
+	public static String getString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length == NULL_STRING) {
+			return null;
+		}
+		String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	/**
+	 * Reads a status response, returning its string.
+	 */
+	public static String getStatus(ByteBuffer in) {
+		if (in.get() != STATUS) {
+			throw new IllegalStateException("Expected a status response");
+		}
+		return getString(in);
+	}
+
+	/**
+	 * Reads a list response, returning its strings.
+	 */
+	public static List<String> getList(ByteBuffer in) {
+		if (in.get() != LIST) {
+			throw new IllegalStateException("Expected a list response");
+		}
+		int size = in.getInt();
+		List<String> list = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(getString(in));
+		}
+		return list;
+	}
+
+	/**
+	 * A growable buffer frames are encoded into before being sent.
+	 */
+	public static class Encoder {
+		private ByteBuffer _buffer = ByteBuffer.allocate(256);
+		private int _frameStart;
+
+		/**
+		 * Reserves space for the length of a new frame.
+		 */
+		public void beginFrame() {
+			ensureCapacity(4);
+			_frameStart = _buffer.position();
+			_buffer.putInt(0);
+		}
+
+		/**
+		 * Fills in the length of the frame started by the last call to beginFrame.
+		 */
+		public void endFrame() {
+			_buffer.putInt(_frameStart, frameLength());
+		}
+
+		/**
+		 * Returns the length so far of the frame started by the last call to
+		 * beginFrame, not counting its length field.
+		 */
+		public int frameLength() {
+			return _buffer.position() - _frameStart - 4;
+		}
+
+		public void putByte(byte value) {
+			ensureCapacity(1);
+			_buffer.put(value);
+		}
+
+		public void putBoolean(boolean value) {
+			putByte((byte) (value ? 1 : 0));
+		}
+
+		public void putString(String value) {
+			if (value == null) {
+				ensureCapacity(4);
+				_buffer.putInt(NULL_STRING);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			ensureCapacity(4 + bytes.length);
+			_buffer.putInt(bytes.length);
+			_buffer.put(bytes);
+		}
+
+		public void putStatus(String status) {
+			putByte(STATUS);
+			putString(status);
+		}
+
+		public void putList(List<String> list) {
+			putByte(LIST);
+			ensureCapacity(4);
+			_buffer.putInt(list.size());
+			for (String s : list) {
+				putString(s);
+			}
+		}
+
+		/**
+		 * Returns the encoded frames, ready to be written.
+		 */
+		public ByteBuffer toBuffer() {
+			_buffer.flip();
+			return _buffer;
+		}
+
+		private void ensureCapacity(int bytes) {
+			if (_buffer.remaining() < bytes) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * _buffer.capacity(), _buffer.position() + bytes));
+				_buffer.flip();
+				larger.put(_buffer);
+				_buffer = larger;
+			}
+		}
+	}
+}
@@ -1,16 +1,119 @@
 package shiftman.server;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Implements the ShiftMan interface. Primarily creates and calls methods on the week's roster 
  * manager. Also handles the catching of exceptions and returns appropriate error messages. 
+ * 
+ * <p>The server may be called from many threads at once. The current roster manager is published
+ * through a volatile field and read once per call, and the roster manager synchronizes its own
+ * state.
+ * 
+ * <p>A server created over a RosterLog recovers its roster from the log, and logs every later
+ * change to it so the roster survives a restart. A change which cannot be logged returns the
+ * RosterLogException's error message.
  */
 public class ShiftManServer implements ShiftMan {
-	private RosterManager _shopRoster;
+	private volatile RosterManager _shopRoster;
+	private final boolean _snapshotReads;
+	private final RosterLog _log;
+	private volatile Executor _fanOut;
+	private volatile int _fanOutThreshold = WeeklyRoster.DEFAULT_FAN_OUT_THRESHOLD;
+	private final List<Executor> _requestExecutors = new ArrayList<Executor>();
 
 	public ShiftManServer() {
+		this(false);
+	}
+
+	/**
+	 * Creates a server whose rosters answer queries from immutable snapshots if
+	 * snapshotReads is true. See RosterManager.
+	 */
+	public ShiftManServer(boolean snapshotReads) {
+		this((RosterManager) null, snapshotReads);
+	}
+
+	/**
+	 * Creates a server for the provided existing roster, which may be null if no
+	 * roster has been created yet.
+	 */
+	public ShiftManServer(RosterManager shopRoster, boolean snapshotReads) {
+		_shopRoster = shopRoster;
+		_snapshotReads = snapshotReads;
+		_log = null;
+	}
+
+	/**
+	 * Creates a server whose roster is recovered from, and whose changes are
+	 * recorded in, the provided log. New rosters replace the log's contents.
+	 */
+	public ShiftManServer(RosterLog log, boolean snapshotReads) throws IOException {
+		_shopRoster = log.recover(snapshotReads);
+		_snapshotReads = snapshotReads;
+		_log = log;
+	}
+
+	/**
+	 * Sets the executor the current and future rosters fan out queries over the
+	 * whole week on, or null to query each day in turn. Each day is queried as one
+	 * task, whether the executor is a ForkJoinPool or another executor, such as
+	 * one from RequestExecutors.
+	 * 
+	 * <p>The fan-out executor must not be one a ShiftManEndpoint runs this
+	 * server's calls on. A query waits for its day tasks while holding one of the
+	 * executor's threads, so once every thread of a bounded pool holds a query,
+	 * the day tasks queued behind them never run. Throws IllegalArgumentException
+	 * if it is.
+	 */
+	public void setFanOut(Executor fanOut) {
+		setFanOut(fanOut, WeeklyRoster.DEFAULT_FAN_OUT_THRESHOLD);
+	}
+
+	/**
+	 * Sets the fan-out executor as above, and the number of shifts a roster must
+	 * have before its queries are fanned out.
+	 */
+	public synchronized void setFanOut(Executor fanOut, int threshold) {
+		if (fanOut != null && _requestExecutors.contains(fanOut)) {
+			throw new IllegalArgumentException("The fan-out executor must not be an endpoint's request executor");
+		}
+		_fanOut = fanOut;
+		_fanOutThreshold = threshold;
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster != null) {
+			shopRoster.setFanOut(fanOut, threshold);
+		}
+	}
+
+	/**
+	 * Records that a ShiftManEndpoint runs this server's calls on the provided
+	 * executor, which then may not be the fan-out executor. Throws
+	 * IllegalArgumentException if it already is.
+	 */
+	synchronized void addRequestExecutor(Executor executor) {
+		if (executor == _fanOut) {
+			throw new IllegalArgumentException("The request executor must not be the server's fan-out executor");
+		}
+		_requestExecutors.add(executor);
+	}
+
+	/**
+	 * Records that a ShiftManEndpoint no longer runs this server's calls on the
+	 * provided executor.
+	 */
+	synchronized void removeRequestExecutor(Executor executor) {
+		_requestExecutors.remove(executor);
+	}
+
+	/**
+	 * Returns the current roster, or null if no roster has been created.
+	 */
+	public RosterManager getRoster() {
+		return _shopRoster;
 	}
 
 	/**
@@ -18,7 +121,22 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public String newRoster(String shopName) {
-		_shopRoster = new RosterManager(shopName);
+		RosterManager shopRoster = new RosterManager(shopName, _snapshotReads);
+		shopRoster.setFanOut(_fanOut, _fanOutThreshold);
+		if (_log != null) {
+			RosterManager oldRoster = _shopRoster;
+			try {
+				if (oldRoster != null) {
+					oldRoster.resetLog(shopName);
+				} else {
+					_log.reset(shopName);
+				}
+			} catch (RosterLogException e) {
+				return e.getMessage();
+			}
+			shopRoster.attachLog(_log);
+		}
+		_shopRoster = shopRoster;
 		return "";
 	}
 
@@ -27,15 +145,18 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public String setWorkingHours(String dayOfWeek, String startTime, String endTime) {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			return "ERROR: You must first create a roster";
 		} else {
 			try {
-				_shopRoster.setWorkingHours(dayOfWeek, startTime, endTime);
+				shopRoster.setWorkingHours(dayOfWeek, startTime, endTime);
 			} catch (InvalidDayException e) {
 				return e.getMessage();
 			} catch (InvalidTimeException e) {
 				return e.getMessage();
+			} catch (RosterLogException e) {
+				return e.getMessage();
 			}
 			return "";
 		}
@@ -46,10 +167,15 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public String registerStaff(String givenname, String familyName) {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			return "ERROR: You must first create a roster"; 
 		} else {
-			_shopRoster.registerWorker(givenname, familyName);
+			try {
+				shopRoster.registerWorker(givenname, familyName);
+			} catch (RosterLogException e) {
+				return e.getMessage();
+			}
 			return "";
 		}
 	}
@@ -59,15 +185,20 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public String addShift(String dayOfWeek, String startTime, String endTime, String minimumWorkers) {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			return "ERROR: no roster has been created";
 		} else {
 			try {
-				_shopRoster.addShift(dayOfWeek, startTime, endTime, minimumWorkers);
+				shopRoster.addShift(dayOfWeek, startTime, endTime, minimumWorkers);
 			} catch (InvalidDayException e) {
 				return e.getMessage();
 			} catch (InvalidTimeException e) {
 				return e.getMessage();
+			} catch (InvalidCountException e) {
+				return e.getMessage();
+			} catch (RosterLogException e) {
+				return e.getMessage();
 			}
 			return "";
 		}
@@ -79,32 +210,95 @@ public class ShiftManServer implements ShiftMan {
 	@Override
 	public String assignStaff(String dayOfWeek, String startTime, String endTime, String givenName, String familyName,
 			boolean isManager) {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			return "ERROR: no roster has been created";
 		} else {
 			try {
-				_shopRoster.assignStaff(dayOfWeek, startTime, endTime, givenName, familyName, isManager);
+				shopRoster.assignStaff(dayOfWeek, startTime, endTime, givenName, familyName, isManager);
 			} catch (ManagerAssignedException e) {
 				return e.getMessage();
 			} catch (InvalidDayException e) {
 				return e.getMessage();
+			} catch (UnregisteredStaffException e) {
+				return e.getMessage();
+			} catch (DoubleBookedException e) {
+				return e.getMessage();
+			} catch (RosterLogException e) {
+				return e.getMessage();
 			}
 			return "";
 		}
 	}
 
+	/**
+	 * Adds each of the provided shifts to the current roster as one batch,
+	 * returning one status string per shift, as addShift would have returned, or
+	 * a single error if the batch could not be made durable.
+	 * 
+	 * <p>A batch is not atomic. Each shift is added or refused on its own, in
+	 * order, so a refused shift does not stop the shifts before or after it from
+	 * being added. Batching only means that other threads see all of the added
+	 * shifts at once, and that they are logged by one commit. If that commit
+	 * fails, the added shifts stay in the roster but may not survive a restart.
+	 */
+	public List<String> addShifts(List<ShiftSpec> specs) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
+			List<String> errorString = new ArrayList<String>();
+			errorString.add("ERROR: no roster has been created");
+			return errorString;
+		} else {
+			try {
+				return shopRoster.addShifts(specs);
+			} catch (RosterLogException e) {
+				List<String> errorString = new ArrayList<String>();
+				errorString.add(e.getMessage());
+				return errorString;
+			}
+		}
+	}
+
+	/**
+	 * Makes each of the provided assignments in the current roster as one batch,
+	 * returning one status string per assignment, as assignStaff would have
+	 * returned, or a single error if the batch could not be made durable.
+	 * 
+	 * <p>As with addShifts, a batch is not atomic. Each assignment is made or
+	 * refused on its own, in order, and a refused assignment changes nothing but
+	 * does not undo or prevent the others. Other threads see all of the
+	 * assignments made at once, and they are logged by one commit.
+	 */
+	public List<String> assignStaff(List<Assignment> assignments) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
+			List<String> errorString = new ArrayList<String>();
+			errorString.add("ERROR: no roster has been created");
+			return errorString;
+		} else {
+			try {
+				return shopRoster.assignStaff(assignments);
+			} catch (RosterLogException e) {
+				List<String> errorString = new ArrayList<String>();
+				errorString.add(e.getMessage());
+				return errorString;
+			}
+		}
+	}
+
 	/**
 	 * Returns a list of strings representing all staff registered with the current
 	 * roster.
 	 */
 	@Override
 	public List<String> getRegisteredStaff() {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			List<String> errorString = new ArrayList<String>();
 			errorString.add("ERROR: no roster has been created");
 			return errorString;
 		} else {
-			return _shopRoster.getStaff();
+			return shopRoster.getStaff();
 		}
 	}
 
@@ -114,12 +308,28 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public List<String> getUnassignedStaff() {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			List<String> errorString = new ArrayList<String>();
 			errorString.add("ERROR: no roster has been created");
 			return errorString;
 		} else {
-			return _shopRoster.getUnassignedStaff();
+			return shopRoster.getUnassignedStaff();
+		}
+	}
+
+	/**
+	 * Returns a list of strings describing each pair of overlapping shifts a worker
+	 * is booked for in the current roster.
+	 */
+	public List<String> findDoubleBookings() {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
+			List<String> errorString = new ArrayList<String>();
+			errorString.add("ERROR: no roster has been created");
+			return errorString;
+		} else {
+			return shopRoster.findDoubleBookings();
 		}
 	}
 
@@ -129,12 +339,13 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public List<String> shiftsWithoutManagers() {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			List<String> errorString = new ArrayList<String>();
 			errorString.add("ERROR: no roster has been created");
 			return errorString;
 		} else {
-			return _shopRoster.shiftsWithoutManagers();
+			return shopRoster.shiftsWithoutManagers();
 		} 
 	}
 
@@ -144,12 +355,13 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public List<String> understaffedShifts() {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			List<String> errorString = new ArrayList<String>();
 			errorString.add("ERROR: no roster has been created");
 			return errorString;
 		} else {
-			return _shopRoster.understaffedShifts();
+			return shopRoster.understaffedShifts();
 		}
 	}
 
@@ -159,12 +371,13 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public List<String> overstaffedShifts() {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			List<String> errorString = new ArrayList<String>();
 			errorString.add("ERROR: no roster has been created");
 			return errorString;
 		} else {
-			return _shopRoster.overStaffedShifts();
+			return shopRoster.overStaffedShifts();
 		}
 	}
 
@@ -174,12 +387,13 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public List<String> getRosterForWorker(String workerName) {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			List<String> errorString = new ArrayList<String>();
 			errorString.add("ERROR: no roster has been created");
 			return errorString;
 		} else { 
-			return _shopRoster.getRosterForWorker(workerName);
+			return shopRoster.getRosterForWorker(workerName);
 		}
 	}
 
@@ -189,12 +403,13 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public List<String> getShiftsManagedBy(String managerName) {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			List<String> errorString = new ArrayList<String>();
 			errorString.add("ERROR: no roster has been created");
 			return errorString;
 		} else { 
-			return _shopRoster.getShiftsManagedBy(managerName);
+			return shopRoster.getShiftsManagedBy(managerName);
 		}
 	}
 
@@ -204,22 +419,80 @@ public class ShiftManServer implements ShiftMan {
 	 */
 	@Override
 	public List<String> getRosterForDay(String dayOfWeek) {
-		if (_shopRoster == null) {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
 			List<String> errorString = new ArrayList<String>();
 			errorString.add("ERROR: no roster has been created");
 			return errorString;
-		} else { 
-			return _shopRoster.getRosterForDay(dayOfWeek);
+		} else {
+			try {
+				return shopRoster.getRosterForDay(dayOfWeek);
+			} catch (InvalidDayException e) {
+				List<String> errorString = new ArrayList<String>();
+				errorString.add(e.getMessage());
+				return errorString;
+			}
+		}
+	}
+
+	/**
+	 * Writes the sub-roster for the given day within the current roster to the
+	 * provided sink, one line per entry returned by getRosterForDay(dayOfWeek).
+	 * Returns an error message if the roster or day does not exist.
+	 */
+	public String getRosterForDay(String dayOfWeek, Appendable out) throws IOException {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
+			return "ERROR: no roster has been created";
+		} else {
+			try {
+				shopRoster.writeRosterForDay(dayOfWeek, out);
+			} catch (InvalidDayException e) {
+				return e.getMessage();
+			}
+			return "";
 		}
 	}
 
+	/**
+	 * Writes the roster for the whole week to the provided sink, one day at a
+	 * time. Returns an error message if no roster has been created.
+	 */
+	public String exportRoster(Appendable out) throws IOException {
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
+			return "ERROR: no roster has been created";
+		} else {
+			shopRoster.writeRoster(out);
+			return "";
+		}
+	}
+
+	/**
+	 * Returns the current roster as text, or an error message if no roster has
+	 * been created.
+	 */
 	@Override
 	public String displayRoster() {
-		return "";
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
+			return "ERROR: no roster has been created";
+		} else {
+			return shopRoster.displayRoster();
+		}
 	}
 
+	/**
+	 * Returns the staffing issues with the current roster as text, or an error
+	 * message if no roster has been created.
+	 */
 	@Override
 	public String reportRosterIssues() {
-		return "";
+		RosterManager shopRoster = _shopRoster;
+		if (shopRoster == null) {
+			return "ERROR: no roster has been created";
+		} else {
+			return shopRoster.reportRosterIssues();
+		}
 	}
 }
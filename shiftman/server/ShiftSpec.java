@@ -0,0 +1,35 @@
+package shiftman.server;
+
+/**
+ * Describes one shift to be added by a batch call to addShifts. Holds the same values as the
+ * parameters of a single addShift call.
+ */
+public class ShiftSpec {
+	private final String _dayOfWeek;
+	private final String _startTime;
+	private final String _endTime;
+	private final String _minimumWorkers;
+
+	public ShiftSpec(String dayOfWeek, String startTime, String endTime, String minimumWorkers) {
+		_dayOfWeek = dayOfWeek;
+		_startTime = startTime;
+		_endTime = endTime;
+		_minimumWorkers = minimumWorkers;
+	}
+
+	public String getDayOfWeek() {
+		return _dayOfWeek;
+	}
+
+	public String getStartTime() {
+		return _startTime;
+	}
+
+	public String getEndTime() {
+		return _endTime;
+	}
+
+	public String getMinimumWorkers() {
+		return _minimumWorkers;
+	}
+}
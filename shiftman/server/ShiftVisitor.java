@@ -0,0 +1,13 @@
+package shiftman.server;
+
+/**
+ * Receives the shifts of a roster one at a time, in order of day and then start time. Shifts are
+ * visited while their day's read lock is held, so a visitor must not change the roster.
+ */
+public interface ShiftVisitor {
+
+	/**
+	 * Called once for each shift visited.
+	 */
+	void visitShift(Shift shift);
+}
@@ -1,78 +1,155 @@
 package shiftman.server;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 /**
- * This class serves to encapsulate a collection of Shift objects. 
+ * This class serves to encapsulate a collection of Shift objects. Shifts are kept in a TreeMap
+ * keyed on their start minute, so the collection is always in the natural order of a Shift and
+ * a new shift only needs to be compared against its immediate neighbours. Shifts are also indexed
+ * by their packed start and end minutes so that a shift can be found directly from its times.
+ * 
+ * <p>Shifts created by this collection are also bucketed by their staffing status as they are
+ * added and assigned staff, so that the staffing queries only visit the shifts they report.
  */
 public class Shifts {
-	private List<Shift> _shifts = new ArrayList<Shift>();
+	private NavigableMap<Integer, Shift> _shifts = new TreeMap<Integer, Shift>();
+	private Map<Integer, Shift> _shiftsByKey = new HashMap<Integer, Shift>();
+	private NavigableMap<Integer, Shift> _understaffed = new TreeMap<Integer, Shift>();
+	private NavigableMap<Integer, Shift> _overStaffed = new TreeMap<Integer, Shift>();
+	private NavigableMap<Integer, Shift> _withoutManagers = new TreeMap<Integer, Shift>();
 
 	/**
-	 * Create a shift object with given parameters. Adds it to list of shifts, test
-	 * if it is valid, and remove it if it is not. Returns the created shift.
+	 * Create a shift object with given parameters. Tests if it is valid, and adds
+	 * it to the collection only if it is. Returns the created shift.
 	 */
 	public Shift addShift(String day, String startTime, String endTime, String minimumWorkers, TimePeriod workingHours)
-			throws InvalidTimeException {
-		Shift _newShift = new Shift(day, startTime, endTime, minimumWorkers);
-		try {
-			_shifts.add(_newShift);
-			testOverlap();
-			testInWorkingHours(workingHours);
-		} catch (InvalidTimeException e) {
-			_shifts.remove(_newShift);
-			_newShift = null;
-			throw e;
-		}
-		return _newShift;
+			throws InvalidTimeException, InvalidCountException {
+		Shift newShift = new Shift(day, startTime, endTime, minimumWorkers);
+		testOverlap(newShift);
+		testInWorkingHours(newShift, workingHours);
+		addShift(newShift);
+		updateStatus(newShift);
+		return newShift;
 	}
 
 	/**
 	 * Adds the provided shift to this collection.
 	 */
-	public void addShift(Shift shift) {
-		_shifts.add(shift);
+	private void addShift(Shift shift) {
+		_shifts.put(shift.getStartMinute(), shift);
+		_shiftsByKey.put(shift.getKey(), shift);
 	}
 
 	/**
-	 * Tests if the recently added shift overlaps with any existing shifts. If not,
-	 * throwing an invalid time exception.
+	 * Adds the provided shift, which was previously validated by this collection,
+	 * back into it. Used when restoring a saved roster.
+	 */
+	public void restoreShift(Shift shift) {
+		addShift(shift);
+		updateStatus(shift);
+	}
+
+	/**
+	 * Returns the shifts in this collection, in their natural order.
+	 */
+	public Collection<Shift> getShifts() {
+		return Collections.unmodifiableCollection(_shifts.values());
+	}
+
+	/**
+	 * Tests if the provided shift overlaps with any existing shifts, throwing an
+	 * invalid time exception if it does. As the existing shifts never overlap each
+	 * other, only the shifts starting immediately before and after the provided
+	 * shift need to be tested.
 	 */
-	public void testOverlap() throws InvalidTimeException {
-		if (_shifts.size() > 1) {
-			for (int i = 0; i < _shifts.size() - 1; i++) {
-				if (_shifts.get(_shifts.size() - 1).testOverlap(_shifts.get(i))) {
-					throw new InvalidTimeException("ERROR: Shift overlaps with existing shift(s)");
-				}
-			}
+	public void testOverlap(Shift shift) throws InvalidTimeException {
+		Map.Entry<Integer, Shift> before = _shifts.floorEntry(shift.getStartMinute());
+		Map.Entry<Integer, Shift> after = _shifts.ceilingEntry(shift.getStartMinute());
+		if ((before != null && shift.testOverlap(before.getValue()))
+				|| (after != null && shift.testOverlap(after.getValue()))) {
+			throw new InvalidTimeException("ERROR: Shift overlaps with existing shift(s)");
 		}
 	}
 
 	/**
-	 * Tests if the recently added shift is within this day's working hours. If not,
+	 * Tests if the provided shift is within this day's working hours. If not,
 	 * throwing an invalid time exception.
 	 */
-	private void testInWorkingHours(TimePeriod workingHours) throws InvalidTimeException {
-		if (!_shifts.get(_shifts.size() - 1).isWithin(workingHours)) {
+	private void testInWorkingHours(Shift shift, TimePeriod workingHours) throws InvalidTimeException {
+		if (!shift.isWithin(workingHours)) {
 			throw new InvalidTimeException("ERROR: Shift is not within working hours");
 		}
 	}
 
 	/**
-	 * Find the shift represented by the given parameters and assign the provided
-	 * worker to that shift.
+	 * Returns the shift represented by the given parameters, or null if there is
+	 * no such shift.
+	 */
+	public Shift findShift(String startTime, String endTime) {
+		return _shiftsByKey.get(TimePeriod.toKey(startTime, endTime));
+	}
+
+	/**
+	 * Assigns the provided worker to the provided shift in this collection.
+	 */
+	public void assignStaff(Shift shift, Worker worker, boolean isManager) throws ManagerAssignedException {
+		shift.assignStaff(worker, isManager);
+		updateStatus(shift);
+	}
+
+	/**
+	 * Moves the provided shift into the staffing status buckets matching its
+	 * current staffing and manager assignment.
 	 */
-	public Shift assignStaff(String startTime, String endTime, Worker worker, boolean isManager)
-			throws ManagerAssignedException {
-		for (Shift s : _shifts) {
-			if (s.isShift(startTime, endTime)) {
-				s.assignStaff(worker, isManager);
-				return s;
-			}
+	private void updateStatus(Shift shift) {
+		Integer start = shift.getStartMinute();
+		int staffing = shift.testStaffing();
+		if (staffing < 0) {
+			_understaffed.put(start, shift);
+		} else {
+			_understaffed.remove(start);
 		}
-		return null;
+		if (staffing > 0) {
+			_overStaffed.put(start, shift);
+		} else {
+			_overStaffed.remove(start);
+		}
+		if (!shift.hasManager()) {
+			_withoutManagers.put(start, shift);
+		} else {
+			_withoutManagers.remove(start);
+		}
+	}
+
+	/**
+	 * Returns the shifts in this collection which have more workers assigned than
+	 * their minimum, in their natural order.
+	 */
+	public Collection<Shift> getOverStaffedShifts() {
+		return Collections.unmodifiableCollection(_overStaffed.values());
+	}
+
+	/**
+	 * Returns the shifts in this collection which have fewer workers assigned than
+	 * their minimum, in their natural order.
+	 */
+	public Collection<Shift> getUnderstaffedShifts() {
+		return Collections.unmodifiableCollection(_understaffed.values());
+	}
+
+	/**
+	 * Returns the shifts in this collection without an assigned manager, in their
+	 * natural order.
+	 */
+	public Collection<Shift> getShiftsWithoutManagers() {
+		return Collections.unmodifiableCollection(_withoutManagers.values());
 	}
 
 	/**
@@ -80,12 +157,9 @@ public class Shifts {
 	 * have more workers assigned than their minimum.
 	 */
 	public List<String> overStaffedShifts() {
-		Collections.sort(_shifts);
 		List<String> overStaffedShifts = new ArrayList<String>();
-		for (Shift s : _shifts) {
-			if (s.testStaffing() > 0) {
-				overStaffedShifts.add(s.toString());
-			}
+		for (Shift s : _overStaffed.values()) {
+			overStaffedShifts.add(s.toString());
 		}
 		return overStaffedShifts;
 	}
@@ -95,12 +169,9 @@ public class Shifts {
 	 * have less workers assigned than their minimum.
 	 */
 	public List<String> understaffedShifts() {
-		sort();
 		List<String> underStaffedShifts = new ArrayList<String>();
-		for (Shift s : _shifts) {
-			if (s.testStaffing() < 0) {
-				underStaffedShifts.add(s.toString());
-			}
+		for (Shift s : _understaffed.values()) {
+			underStaffedShifts.add(s.toString());
 		}
 		return underStaffedShifts;
 	}
@@ -110,10 +181,12 @@ public class Shifts {
 	 * a shift in this collection.
 	 */
 	public List<String> toDescriptions() {
-		List<String> daysRoster = new ArrayList<String>();
-		sort();
-		for (Shift s : _shifts) {
-			daysRoster.add(s.getFormattedDescription());
+		List<String> daysRoster = new ArrayList<String>(_shifts.size());
+		StringBuilder builder = new StringBuilder();
+		for (Shift s : _shifts.values()) {
+			builder.setLength(0);
+			s.appendFormattedDescription(builder);
+			daysRoster.add(builder.toString());
 		}
 		return daysRoster;
 	}
@@ -123,33 +196,22 @@ public class Shifts {
 	 * collection without an assigned manager.
 	 */
 	public List<String> shiftsWithoutManagers() {
-		sort();
 		List<String> withoutManagers = new ArrayList<String>();
-		for (Shift s : _shifts) {
-			if (!s.hasManager()) {
-				withoutManagers.add(s.toString());
-			}
+		for (Shift s : _withoutManagers.values()) {
+			withoutManagers.add(s.toString());
 		}
 		return withoutManagers;
 	}
 
-	/**
-	 * Sorts this collection by the natural order of a Shift.
-	 */
-	public void sort() {
-		Collections.sort(_shifts);
-	}
-
 	/**
 	 * Returns a sorted list of strings where each string is the string representation of a
 	 * Shift in this collection.
 	 */
 	public List<String> toStringList() {
 		List<String> shiftList = new ArrayList<String>();
-		sort();
-		for (Shift s : _shifts) {
+		for (Shift s : _shifts.values()) {
 			shiftList.add(s.toString());
 		}
 		return shiftList;
 	}
-}
\ No newline at end of file
+}
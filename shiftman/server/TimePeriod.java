@@ -1,43 +1,65 @@
 package shiftman.server;
 
 /**
- * Represents a period of time supplied as a string for the sake of simplified formatting and testing
- * of this period of time. 
+ * Represents a period of time supplied as HH:MM strings. The start and end of the period are held
+ * as minutes past midnight packed into a single int, so that testing and comparing periods is pure
+ * arithmetic. The display strings are only built when first asked for, and then kept.
  */
 public class TimePeriod implements Comparable<TimePeriod> {
-	private String _startTime;
-	private String _endTime;
-	private Integer _startHour;
-	private Integer _startMinute;
-	private Integer _endHour;
-	private Integer _endMinute;
-	private int _startAbsolute;
-	private int _endAbsolute;
+	private static final int UNSET = 0;
+	private int _period = UNSET;
+	private String _string;
+	private String _formattedString;
 
 	public TimePeriod() {
 	}
 
 	/**
-	 * Sets the start and end times for this TimePeriod object. Then formats these
-	 * start and end times, and tests to ensure that these times are valid.
+	 * Sets the start and end times for this TimePeriod object. Parses these start
+	 * and end times, and tests to ensure that these times are valid. If they are
+	 * not, this TimePeriod is left unchanged.
 	 */
 	public void setTimes(String startTime, String endTime) throws InvalidTimeException {
-		_startTime = startTime;
-		_endTime = endTime;
-		format();
-		testValidity();
+		int start = toMinutes(startTime);
+		int end = toMinutes(endTime);
+		if (start < 0) {
+			throw new InvalidTimeException("ERROR: Time provided: " + startTime + " is invalid");
+		} else if (end < 0) {
+			throw new InvalidTimeException("ERROR: Time provided: " + endTime + " is invalid");
+		}
+		testValidity(start, end);
+		setMinutes(start, end);
+	}
+
+	/**
+	 * Sets the start and end times for this TimePeriod object from minutes past
+	 * midnight. The times are assumed to be valid, as when restoring a TimePeriod
+	 * which was previously set by setTimes.
+	 */
+	public void setMinutes(int startMinute, int endMinute) {
+		_period = toKey(startMinute, endMinute);
+		_string = null;
+		_formattedString = null;
+	}
+
+	/**
+	 * Returns true if the times of this TimePeriod have been set. An unset period
+	 * starts and ends at 00:00, which is never a valid period.
+	 */
+	public boolean isSet() {
+		return _period != UNSET;
 	}
 
 	/**
-	 * Tests the validity of this TimePeriod object i.e if it's start time is before
+	 * Tests the validity of the provided period i.e if it's start time is before
 	 * it's end time, and if it starts and ends within one day.
-	 * 
+	 *
 	 * @throws InvalidTimeException
 	 */
-	private void testValidity() throws InvalidTimeException {
-		if (_startAbsolute >= _endAbsolute) {
+	private static void testValidity(int start, int end) throws InvalidTimeException {
+		if (start >= end) {
 			throw new InvalidTimeException("ERROR: Start time cannot be later than or equal to end time");
-		} else if (_endAbsolute > 1439 || _startAbsolute < 0) {
+		} else if (end > 1439 || start < 0) {
 			throw new InvalidTimeException("ERROR: Shift cannot span outside the hours of 00:00 and 23:59");
 		}
 	}
@@ -45,28 +67,95 @@ public class TimePeriod implements Comparable<TimePeriod> {
 	/**
 	 * Tests if the time period represented by this object is within the time period
 	 * represented by the provided TimePeriod object.
-	 * 
+	 *
 	 * @return Returns true if it is, false otherwise.
 	 */
 	public boolean isWithin(TimePeriod compTimeInfo) {
-		if (_startAbsolute >= compTimeInfo._startAbsolute && _endAbsolute <= compTimeInfo._endAbsolute) {
-			return true;
+		return getStartMinute() >= compTimeInfo.getStartMinute() && getEndMinute() <= compTimeInfo.getEndMinute();
+	}
+
+	/**
+	 * Returns the start of this time period as minutes past midnight.
+	 */
+	public int getStartMinute() {
+		return _period >>> 16;
+	}
+
+	/**
+	 * Returns the end of this time period as minutes past midnight.
+	 */
+	public int getEndMinute() {
+		return _period & 0xFFFF;
+	}
+
+	/**
+	 * Returns a key which uniquely identifies this time period, packing the start
+	 * and end minutes into a single int.
+	 */
+	public int toKey() {
+		return _period;
+	}
+
+	/**
+	 * Returns the key identifying the time period represented by the provided
+	 * HH:MM strings, or -1 if either string is not a valid time.
+	 */
+	public static int toKey(String startTime, String endTime) {
+		int start = toMinutes(startTime);
+		int end = toMinutes(endTime);
+		if (start < 0 || end < 0) {
+			return -1;
 		} else {
-			return false;
+			return toKey(start, end);
 		}
 	}
 
 	/**
-	 * Initializes additional fields by extracting information from _startTime and
-	 * _endTime strings.
+	 * Packs the provided start and end minutes into a single int key.
 	 */
-	private void format() {
-		_startHour = Integer.parseInt(_startTime.substring(0, 2));
-		_startMinute = Integer.parseInt(_startTime.substring(3, 5));
-		_endHour = Integer.parseInt(_endTime.substring(0, 2));
-		_endMinute = Integer.parseInt(_endTime.substring(3, 5));
-		_startAbsolute = 60 * _startHour.intValue() + _startMinute.intValue();
-		_endAbsolute = 60 * _endHour.intValue() + _endMinute.intValue();
+	private static int toKey(int startMinute, int endMinute) {
+		return (startMinute << 16) | endMinute;
+	}
+
+	/**
+	 * Converts a time in the form HH:MM into minutes past midnight. Returns -1 if
+	 * the string is not in this form.
+	 */
+	private static int toMinutes(String time) {
+		if (time == null || time.length() != 5 || time.charAt(2) != ':') {
+			return -1;
+		}
+		int hour = toDigits(time.charAt(0), time.charAt(1));
+		int minute = toDigits(time.charAt(3), time.charAt(4));
+		if (hour < 0 || minute < 0 || minute > 59) {
+			return -1;
+		}
+		return 60 * hour + minute;
+	}
+
+	/**
+	 * Converts the provided pair of digit characters into their two digit value.
+	 * Returns -1 if either character is not a digit.
+	 */
+	private static int toDigits(char tens, char units) {
+		if (tens < '0' || tens > '9' || units < '0' || units > '9') {
+			return -1;
+		}
+		return 10 * (tens - '0') + (units - '0');
+	}
+
+	/**
+	 * Writes the provided minutes past midnight into the provided array as a time
+	 * in the form HH:MM, starting at the provided offset.
+	 */
+	private static void formatMinutes(int minutes, char[] chars, int offset) {
+		int hour = minutes / 60;
+		int minute = minutes % 60;
+		chars[offset] = (char) ('0' + hour / 10);
+		chars[offset + 1] = (char) ('0' + hour % 10);
+		chars[offset + 2] = ':';
+		chars[offset + 3] = (char) ('0' + minute / 10);
+		chars[offset + 4] = (char) ('0' + minute % 10);
 	}
 
 	/**
@@ -74,11 +163,7 @@ public class TimePeriod implements Comparable<TimePeriod> {
 	 * period represented by the provided object.
 	 */
 	public boolean testOverlap(TimePeriod compTimeInfo) {
-		if (!(compTimeInfo._endAbsolute < _startAbsolute || compTimeInfo._startAbsolute > _endAbsolute)) {
-			return true;
-		} else {
-			return false;
-		}
+		return !(compTimeInfo.getEndMinute() < getStartMinute() || compTimeInfo.getStartMinute() > getEndMinute());
 	}
 
 	/**
@@ -86,25 +171,35 @@ public class TimePeriod implements Comparable<TimePeriod> {
 	 * (shift) as that represented by the parameters.
 	 */
 	public boolean isPeriod(String startTime, String endTime) {
-		if (_startTime.equals(startTime) && _endTime.contentEquals(endTime)) {
-			return true;
-		} else {
-			return false;
-		}
+		return toKey(startTime, endTime) == _period;
 	}
 
 	/**
 	 * Returns a string representation of this time period in the form HH:MM-HH:MM
 	 */
 	public String toString() {
-		return _startTime + "-" + _endTime;
+		String string = _string;
+		if (string == null) {
+			char[] chars = new char[11];
+			formatMinutes(getStartMinute(), chars, 0);
+			chars[5] = '-';
+			formatMinutes(getEndMinute(), chars, 6);
+			string = new String(chars);
+			_string = string;
+		}
+		return string;
 	}
 
 	/**
 	 * Returns a string representation of this time period in the form [HH:MM-HH:MM]
 	 */
 	public String toFormattedString() {
-		return "[" + _startTime + "-" + _endTime + "]";
+		String formattedString = _formattedString;
+		if (formattedString == null) {
+			formattedString = "[" + toString() + "]";
+			_formattedString = formattedString;
+		}
+		return formattedString;
 	}
 
 	/**
@@ -114,12 +209,6 @@ public class TimePeriod implements Comparable<TimePeriod> {
 	 */
 	@Override
 	public int compareTo(TimePeriod ti) {
-		if (_startAbsolute < ti._startAbsolute) {
-			return -1;
-		} else if (_startAbsolute > ti._startAbsolute) {
-			return 1;
-		} else {
-			return 0;
-		}
+		return Integer.compare(getStartMinute(), ti.getStartMinute());
 	}
 }
@@ -0,0 +1,12 @@
+package shiftman.server;
+
+/**
+ * Reports an assignment naming someone who is not among the roster's registered staff.
+ */
+public class UnregisteredStaffException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public UnregisteredStaffException(String msg) {
+		super(msg, null, false, false);
+	}
+}
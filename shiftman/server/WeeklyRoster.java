@@ -1,33 +1,142 @@
 package shiftman.server;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import shiftman.server.DailyRoster.Query;
 
 /**
  * Represents the shop's roster for one week. This is primarily the containment of a 'sub-roster'
- * for each day of the week. 
+ * for each day of the week, together with every worker's and manager's schedule for the week,
+ * and every worker's timeline of the shifts they are booked for in either role, which the days add
+ * to as workers are assigned.
+ * 
+ * <p>Queries which cover the whole week can be fanned out across the days on a fan-out executor
+ * once the roster is large enough to repay it. Each day is guarded by its own lock, so the days
+ * can be read in parallel.
  */
 public class WeeklyRoster {
+	private static final Map<String, Days> DAYS_BY_NAME = new HashMap<String, Days>();
+	public static final int DEFAULT_FAN_OUT_THRESHOLD = 1024;
 	private Map<Days, DailyRoster> _dailyRosters = new EnumMap<Days, DailyRoster>(Days.class);
+	private final WorkerSchedules _workerSchedules = new WorkerSchedules();
+	private final WorkerSchedules _managerSchedules = new WorkerSchedules();
+	private final WorkerTimelines _timelines = new WorkerTimelines();
+	private final AtomicInteger _shiftCount = new AtomicInteger();
+	private volatile Executor _fanOut;
+	private volatile int _fanOutThreshold = DEFAULT_FAN_OUT_THRESHOLD;
 
 	public enum Days {
 		Monday, Tuesday, Wednesday, Thursday, Friday, Saturday, Sunday;
 	}
 
+	static {
+		for (Days d : Days.values()) {
+			DAYS_BY_NAME.put(d.name(), d);
+		}
+	}
+
+	/**
+	 * Returns the day with the provided name, or null if there is no such day.
+	 * Unlike Days.valueOf, an invalid name does not throw.
+	 */
+	public static Days findDay(String dayOfWeek) {
+		if (dayOfWeek == null) {
+			return null;
+		}
+		return DAYS_BY_NAME.get(dayOfWeek);
+	}
+
 	/**
 	 * Creates the daily roster for each day of the weekend stores them in the
 	 * EnumMap field _dailyRosters.
 	 */
 	public WeeklyRoster() {
-		_dailyRosters.put(Days.Monday, new DailyRoster("Monday"));
-		_dailyRosters.put(Days.Tuesday, new DailyRoster("Tuesday"));
-		_dailyRosters.put(Days.Wednesday, new DailyRoster("Wednesday"));
-		_dailyRosters.put(Days.Thursday, new DailyRoster("Thursday"));
-		_dailyRosters.put(Days.Friday, new DailyRoster("Friday"));
-		_dailyRosters.put(Days.Saturday, new DailyRoster("Saturday"));
-		_dailyRosters.put(Days.Sunday, new DailyRoster("Sunday"));
+		for (Days d : Days.values()) {
+			_dailyRosters.put(d, new DailyRoster(d, _workerSchedules, _managerSchedules, _timelines, _shiftCount));
+		}
+	}
+
+	/**
+	 * Sets the executor queries over the whole week are fanned out on, or null to
+	 * query each day in turn on the calling thread. Rosters with fewer shifts than
+	 * the threshold are always queried in turn.
+	 */
+	public void setFanOut(Executor fanOut, int threshold) {
+		_fanOut = fanOut;
+		_fanOutThreshold = threshold;
+	}
+
+	/**
+	 * Returns the daily roster for the provided day.
+	 */
+	public DailyRoster getDailyRoster(Days day) {
+		return _dailyRosters.get(day);
+	}
+
+	/**
+	 * Returns the daily roster for the day with the provided name.
+	 */
+	public DailyRoster getDailyRoster(String dayOfWeek) throws InvalidDayException {
+		Days day = findDay(dayOfWeek);
+		if (day == null) {
+			throw new InvalidDayException("ERROR: Day provided: " + dayOfWeek + " is invalid");
+		}
+		return _dailyRosters.get(day);
+	}
+
+	/**
+	 * Acquires the write lock of every day's roster, in day order, and then of the
+	 * week's schedules, so that a batch of changes is seen by other threads all at
+	 * once. Must be paired with unlockForWriting.
+	 */
+	public void lockForWriting() {
+		for (Days d : Days.values()) {
+			_dailyRosters.get(d).lockForWriting();
+		}
+		_workerSchedules.lockForWriting();
+		_managerSchedules.lockForWriting();
+		_timelines.lockForWriting();
+	}
+
+	/**
+	 * Releases the write locks acquired by lockForWriting.
+	 */
+	public void unlockForWriting() {
+		_timelines.unlockForWriting();
+		_managerSchedules.unlockForWriting();
+		_workerSchedules.unlockForWriting();
+		for (Days d : Days.values()) {
+			_dailyRosters.get(d).unlockForWriting();
+		}
+	}
+
+	/**
+	 * Acquires the read lock of every day's roster, in day order, so that the
+	 * whole week stays unchanged until unlockForReading is called.
+	 */
+	public void lockForReading() {
+		for (Days d : Days.values()) {
+			_dailyRosters.get(d).lockForReading();
+		}
+	}
+
+	/**
+	 * Releases the read locks acquired by lockForReading.
+	 */
+	public void unlockForReading() {
+		for (Days d : Days.values()) {
+			_dailyRosters.get(d).unlockForReading();
+		}
 	}
 
 	/**
@@ -36,11 +145,7 @@ public class WeeklyRoster {
 	 */
 	public void setWorkingHours(String dayOfWeek, String startTime, String endTime)
 			throws InvalidTimeException, InvalidDayException {
-		try {
-			_dailyRosters.get(Days.valueOf(dayOfWeek)).setWorkingHours(startTime, endTime);
-		} catch (IllegalArgumentException e) {
-			throw new InvalidDayException("ERROR: Day provided: " + dayOfWeek + " is invalid");
-		}
+		getDailyRoster(dayOfWeek).setWorkingHours(startTime, endTime);
 	}
 
 	/**
@@ -48,26 +153,32 @@ public class WeeklyRoster {
 	 * that day's roster with the provided parameters
 	 */
 	public void addShift(String dayOfWeek, String startTime, String endTime, String minimumWorkers)
-			throws InvalidDayException, InvalidTimeException {
-		try {
-			_dailyRosters.get(Days.valueOf(dayOfWeek)).addShift(startTime, endTime, minimumWorkers);
-		} catch (IllegalArgumentException e) {
-			throw new InvalidDayException("ERROR: Day provided: " + dayOfWeek + " is invalid");
-		}
+			throws InvalidDayException, InvalidTimeException, InvalidCountException {
+		getDailyRoster(dayOfWeek).addShift(startTime, endTime, minimumWorkers);
 	}
 
 	/**
 	 * Finds the daily roster for the provided day, and requests the provided worker
 	 * to be assigned to the shift represented by the startTime and endTime
-	 * parameters.
+	 * parameters. Returns false if there is no such shift.
 	 */
-	public void assignStaff(String dayOfWeek, String startTime, String endTime, Worker worker, boolean isManager)
-			throws ManagerAssignedException, InvalidDayException {
-		try {
-			_dailyRosters.get(Days.valueOf(dayOfWeek)).assignStaff(startTime, endTime, worker, isManager);
-		} catch (IllegalArgumentException e) {
-			throw new InvalidDayException("ERROR: Day provided: " + dayOfWeek + " is invalid");
+	public boolean assignStaff(String dayOfWeek, String startTime, String endTime, Worker worker, boolean isManager)
+			throws ManagerAssignedException, InvalidDayException, DoubleBookedException {
+		return getDailyRoster(dayOfWeek).assignStaff(startTime, endTime, worker, isManager);
+	}
+
+	/**
+	 * Returns a description of every pair of overlapping shifts one of the
+	 * provided workers is booked for, in the order of the workers and then of
+	 * start time. Each worker's timeline is already sorted, so each is scanned
+	 * once rather than comparing every pair of their shifts.
+	 */
+	public List<String> findDoubleBookings(List<Worker> workers) {
+		List<String> doubleBookings = new ArrayList<String>();
+		for (Worker w : workers) {
+			_timelines.addOverlaps(w, doubleBookings);
 		}
+		return doubleBookings;
 	}
 
 	/**
@@ -78,11 +189,7 @@ public class WeeklyRoster {
 	 * @return A list of strings containing shifts without managers
 	 */
 	public List<String> shiftsWithoutManagers() {
-		List<String> withoutManagers = new ArrayList<String>();
-		for (Days d : Days.values()) {
-			withoutManagers.addAll(_dailyRosters.get(d).shiftsWithoutManagers());
-		}
-		return withoutManagers;
+		return queryWeek(Query.WITHOUT_MANAGERS);
 	}
 
 	/**
@@ -92,11 +199,7 @@ public class WeeklyRoster {
 	 * @return A list of strings containing understaffed shifts
 	 */
 	public List<String> understaffedShifts() {
-		List<String> understaffedShifts = new ArrayList<String>();
-		for (Days d : Days.values()) {
-			understaffedShifts.addAll(_dailyRosters.get(d).understaffedShifts());
-		}
-		return understaffedShifts;
+		return queryWeek(Query.UNDERSTAFFED);
 	}
 
 	/**
@@ -106,60 +209,196 @@ public class WeeklyRoster {
 	 * @return A list of strings containing overstaffed shifts
 	 */
 	public List<String> overStaffedShifts() {
-		List<String> overStaffedShifts = new ArrayList<String>();
-		for (Days d : Days.values()) {
-			overStaffedShifts.addAll(_dailyRosters.get(d).overStaffedShifts());
-		}
-		return overStaffedShifts;
+		return queryWeek(Query.OVERSTAFFED);
 	}
 
 	/**
-	 * Iterates through each day of the week and concatenates the provided worker's
-	 * shifts for those days. If the provided worker has no assigned shifts, returns
-	 * an empty list.
+	 * Returns the provided worker's shifts for the week from their schedule, in
+	 * order of day and start time. If the provided worker has no assigned shifts,
+	 * returns an empty list.
 	 * 
 	 * @param worker
 	 * @return List of strings containing worker's shifts (Empty list if worker has
 	 *         no shifts)
 	 */
 	public List<String> getRosterForWorker(Worker worker) {
-		List<String> workerShifts = new ArrayList<String>();
-		workerShifts.add(worker.toStringReverse());
-		for (Days d : Days.values()) {
-			workerShifts.addAll(_dailyRosters.get(d).getRosterForWorker(worker));
-		}
-		if (workerShifts.size() > 1) {
-			return workerShifts;
-		} else {
-			return new ArrayList<String>();
-		}
+		return toSchedule(_workerSchedules, worker);
 	}
 
 	/**
-	 * Iterates through each day of the week and concatenates the provided manager's
-	 * shifts for those days. If the provided manager has no assigned shifts,
-	 * returns an empty list.
+	 * Returns the shifts the provided manager manages for the week from their
+	 * schedule, in order of day and start time. If the provided manager has no
+	 * assigned shifts, returns an empty list.
 	 * 
 	 * @return List of strings containing worker's shifts (Empty list if worker has
 	 *         no shifts)
 	 */
 	public List<String> getShiftsManagedBy(Worker manager) {
-		List<String> managedShifts = new ArrayList<String>();
-		managedShifts.add(manager.toStringReverse());
-		for (Days d : Days.values()) {
-			managedShifts.addAll(_dailyRosters.get(d).getShiftsManagedBy(manager));
+		return toSchedule(_managerSchedules, manager);
+	}
+
+	/**
+	 * Returns the provided worker's name followed by their shifts in the provided
+	 * schedules, or an empty list if they have none or are not registered.
+	 */
+	private static List<String> toSchedule(WorkerSchedules schedules, Worker worker) {
+		List<String> schedule = new ArrayList<String>();
+		if (worker == null) {
+			return schedule;
 		}
-		if (managedShifts.size() > 1) {
-			return managedShifts;
+		schedule.add(worker.toStringReverse());
+		schedules.addStrings(worker.getId(), schedule);
+		if (schedule.size() > 1) {
+			return schedule;
 		} else {
 			return new ArrayList<String>();
 		}
 	}
 
+	/**
+	 * Writes the roster for every day of the week which has shifts to the provided
+	 * sink, one day at a time, in the format of getRosterForDay.
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		for (Days d : Days.values()) {
+			_dailyRosters.get(d).writeTo(out);
+		}
+	}
+
+	/**
+	 * Returns the roster for every day of the week as text, joining each day's
+	 * cached display.
+	 */
+	public String display() {
+		StringBuilder builder = new StringBuilder();
+		for (Days d : Days.values()) {
+			builder.append(_dailyRosters.get(d).display());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Returns the staffing issues for every day of the week as text, joining each
+	 * day's cached issues.
+	 */
+	public String reportIssues() {
+		StringBuilder builder = new StringBuilder();
+		for (Days d : Days.values()) {
+			builder.append(_dailyRosters.get(d).reportIssues());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Passes every shift of the week to the provided visitor, in order of day and
+	 * then start time. Each day is locked only while its own shifts are visited.
+	 */
+	public void visitShifts(ShiftVisitor visitor) {
+		for (Days d : Days.values()) {
+			_dailyRosters.get(d).visitShifts(visitor);
+		}
+	}
+
+	/**
+	 * Runs the provided query on every day of the week, returning the results in
+	 * day order. Small rosters are queried one day at a time on the calling
+	 * thread. Once the week holds at least the fan-out threshold of shifts, and a
+	 * fan-out executor is set, the days are queried in parallel, one task per day:
+	 * fork-join tasks on a ForkJoinPool, or the tasks of a FanOutScope on any
+	 * other executor.
+	 */
+	private List<String> queryWeek(final Query query) {
+		Executor fanOut = _fanOut;
+		if (fanOut == null || shiftCount() < _fanOutThreshold) {
+			List<String> results = new ArrayList<String>();
+			for (Days d : Days.values()) {
+				results.addAll(_dailyRosters.get(d).query(query));
+			}
+			return results;
+		} else if (fanOut instanceof ForkJoinPool) {
+			return ((ForkJoinPool) fanOut).invoke(new WeekTask(query));
+		}
+		FanOutScope<List<String>> scope = new FanOutScope<List<String>>(fanOut);
+		try {
+			for (Days d : Days.values()) {
+				final DailyRoster day = _dailyRosters.get(d);
+				scope.fork(new Callable<List<String>>() {
+					public List<String> call() {
+						return day.query(query);
+					}
+				});
+			}
+			List<String> results = new ArrayList<String>();
+			for (List<String> dayResults : scope.join()) {
+				results.addAll(dayResults);
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while querying the roster", e);
+		} finally {
+			scope.close();
+		}
+	}
+
+	/**
+	 * Returns the number of shifts in the week. The days keep a running count as
+	 * shifts are added, so deciding whether to fan out a query takes no locks.
+	 */
+	private int shiftCount() {
+		return _shiftCount.get();
+	}
+
+	/**
+	 * Runs a query on every day of the week as one fork-join task per day, and
+	 * merges the days' results in day order.
+	 */
+	private class WeekTask extends RecursiveTask<List<String>> {
+		private static final long serialVersionUID = 1L;
+		private final Query _query;
+
+		private WeekTask(Query query) {
+			_query = query;
+		}
+
+		@Override
+		protected List<String> compute() {
+			List<DayTask> days = new ArrayList<DayTask>(7);
+			for (Days d : Days.values()) {
+				days.add(new DayTask(_dailyRosters.get(d), _query));
+			}
+			invokeAll(days);
+			List<String> results = new ArrayList<String>();
+			for (DayTask t : days) {
+				results.addAll(t.join());
+			}
+			return results;
+		}
+	}
+
+	/**
+	 * Runs a query on one day, on the fork-join worker the task is given to.
+	 */
+	private static class DayTask extends RecursiveTask<List<String>> {
+		private static final long serialVersionUID = 1L;
+		private final DailyRoster _day;
+		private final Query _query;
+
+		private DayTask(DailyRoster day, Query query) {
+			_day = day;
+			_query = query;
+		}
+
+		@Override
+		protected List<String> compute() {
+			return _day.query(_query);
+		}
+	}
+
 	/**
 	 * Returns a list of strings representing the provided day's roster.
 	 */
-	public List<String> getRosterForDay(String dayOfWeek) {
-		return _dailyRosters.get(Days.valueOf(dayOfWeek)).toStrings();
+	public List<String> getRosterForDay(String dayOfWeek) throws InvalidDayException {
+		return getDailyRoster(dayOfWeek).toStrings();
 	}
 }
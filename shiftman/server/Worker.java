@@ -3,20 +3,41 @@ package shiftman.server;
 /**
  * Basic representation of a worker to be assigned to shifts during the week. Contains the details
  * about the worker and allows the comparison of this worker to a string representing 
- * a worker's name. 
+ * a worker's name. Registered workers also carry a dense int id, which lets per-worker state be
+ * kept in arrays and bitsets rather than maps.
  */
 public class Worker implements Comparable<Worker> {
 	private String _givenName;
 	private String _familyName;
 	private String _fullName;
+	private final int _id;
 
 	/**
-	 * Creates a new Worker object with the provided name
+	 * Creates a new Worker object with the provided name, which has not been
+	 * registered and so has no id. Such workers are used to look up registered
+	 * workers by name.
 	 */
 	public Worker(String givenName, String familyName) {
+		this(givenName, familyName, -1);
+	}
+
+	/**
+	 * Creates a new Worker object with the provided name and the provided dense id
+	 * within its roster's registered staff.
+	 */
+	public Worker(String givenName, String familyName, int id) {
 		_givenName = givenName;
 		_familyName = familyName;
 		_fullName = givenName + " " + familyName;
+		_id = id;
+	}
+
+	/**
+	 * Returns this worker's id within its roster's registered staff, or -1 if the
+	 * worker was not registered.
+	 */
+	public int getId() {
+		return _id;
 	}
 
 	/**
@@ -24,7 +45,7 @@ public class Worker implements Comparable<Worker> {
 	 * worker represented by the parameters.
 	 */
 	public boolean isWorker(String givenName, String familyName) {
-		if (_givenName.equals(givenName) && _familyName.contentEquals(familyName)) {
+		if (_givenName.equals(givenName) && _familyName.equals(familyName)) {
 			return true;
 		} else {
 			return false;
@@ -43,18 +64,48 @@ public class Worker implements Comparable<Worker> {
 		}
 	}
 
+	/**
+	 * Returns this worker's given name.
+	 */
+	public String getGivenName() {
+		return _givenName;
+	}
+
+	/**
+	 * Returns this worker's family name.
+	 */
+	public String getFamilyName() {
+		return _familyName;
+	}
+
 	/**
 	 * Returns a string representation of this worker in the form 'John Doe'.
 	 */
 	public String toString() {
-		return (_givenName + " " + _familyName);
+		return _fullName;
+	}
+
+	/**
+	 * Appends this worker's name in the form 'John Doe' to the provided builder.
+	 */
+	public void appendTo(StringBuilder builder) {
+		builder.append(_fullName);
+	}
+
+	/**
+	 * Appends this worker's name in the form 'Doe, John' to the provided builder.
+	 */
+	public void appendReverseTo(StringBuilder builder) {
+		builder.append(_familyName).append(", ").append(_givenName);
 	}
 
 	/**
 	 * Returns a string representation of this worker in the form 'Doe, John'.
 	 */
 	public String toStringReverse() {
-		return (_familyName + ", " + _givenName);
+		StringBuilder builder = new StringBuilder(_fullName.length() + 1);
+		appendReverseTo(builder);
+		return builder.toString();
 	}
 
 	/**
@@ -64,4 +115,28 @@ public class Worker implements Comparable<Worker> {
 	public int compareTo(Worker w) {
 		return _familyName.compareToIgnoreCase(w._familyName);
 	}
+
+	/**
+	 * Returns true if the provided object is a worker with the same given and
+	 * family names as this worker.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		} else if (!(o instanceof Worker)) {
+			return false;
+		} else {
+			return isWorker(((Worker) o)._givenName, ((Worker) o)._familyName);
+		}
+	}
+
+	/**
+	 * Returns a hash code consistent with equals, based on this worker's given and
+	 * family names.
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * _givenName.hashCode() + _familyName.hashCode();
+	}
 }
@@ -0,0 +1,131 @@
+package shiftman.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import shiftman.server.WeeklyRoster.Days;
+
+/**
+ * Holds each worker's shifts for the whole week, ordered by day and then start time, so that a
+ * worker's week is one lookup by worker id followed by a walk of one array. Each shift is keyed by
+ * its start as minutes since the start of the week, and the keys and shifts of a worker are kept
+ * in parallel arrays sorted by key as shifts are added.
+ *
+ * <p>The schedules are guarded by their own read/write lock, which is always acquired after any
+ * day's lock, so that assignments to different days may add to them at once.
+ */
+public class WorkerSchedules {
+	public static final int MINUTES_PER_DAY = 24 * 60;
+	private int[][] _keys = new int[0][];
+	private Shift[][] _shifts = new Shift[0][];
+	private int[] _sizes = new int[0];
+	private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Acquires the write lock on behalf of a caller which adds several shifts as
+	 * one. Must be paired with unlockForWriting.
+	 */
+	public void lockForWriting() {
+		_lock.writeLock().lock();
+	}
+
+	/**
+	 * Releases the write lock acquired by lockForWriting.
+	 */
+	public void unlockForWriting() {
+		_lock.writeLock().unlock();
+	}
+
+	/**
+	 * Adds the provided shift on the provided day to the schedule of the worker
+	 * with the provided id, after any shifts starting at the same time. A shift
+	 * added twice for one worker is held twice, as it is listed once per booking.
+	 */
+	public void add(int workerId, Days day, Shift shift) {
+		_lock.writeLock().lock();
+		try {
+			if (workerId >= _keys.length) {
+				int length = Math.max(workerId + 1, 2 * _keys.length);
+				_keys = Arrays.copyOf(_keys, length);
+				_shifts = Arrays.copyOf(_shifts, length);
+				_sizes = Arrays.copyOf(_sizes, length);
+			}
+			int[] keys = _keys[workerId];
+			Shift[] shifts = _shifts[workerId];
+			int size = _sizes[workerId];
+			if (keys == null) {
+				keys = new int[2];
+				shifts = new Shift[2];
+			}
+			int key = toWeekMinute(day, shift.getStartMinute());
+			int index = Arrays.binarySearch(keys, 0, size, key);
+			if (index >= 0) {
+				while (index < size && keys[index] == key) {
+					index++;
+				}
+			} else {
+				index = -index - 1;
+			}
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * size);
+				shifts = Arrays.copyOf(shifts, 2 * size);
+			}
+			System.arraycopy(keys, index, keys, index + 1, size - index);
+			System.arraycopy(shifts, index, shifts, index + 1, size - index);
+			keys[index] = key;
+			shifts[index] = shift;
+			_keys[workerId] = keys;
+			_shifts[workerId] = shifts;
+			_sizes[workerId] = size + 1;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the provided minutes past midnight on the provided day as minutes
+	 * since the start of the week.
+	 */
+	private static int toWeekMinute(Days day, int minute) {
+		return day.ordinal() * MINUTES_PER_DAY + minute;
+	}
+
+	/**
+	 * Returns the number of shifts in the schedule of the worker with the provided
+	 * id.
+	 */
+	public int size(int workerId) {
+		_lock.readLock().lock();
+		try {
+			if (workerId < 0 || workerId >= _sizes.length) {
+				return 0;
+			}
+			return _sizes[workerId];
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Appends the shifts in the schedule of the worker with the provided id to the
+	 * provided list, in order of day and start time, each in the format
+	 * day[HH:MM-HH:MM].
+	 */
+	public void addStrings(int workerId, List<String> strings) {
+		_lock.readLock().lock();
+		try {
+			if (workerId < 0 || workerId >= _sizes.length) {
+				return;
+			}
+			Shift[] shifts = _shifts[workerId];
+			int size = _sizes[workerId];
+			for (int i = 0; i < size; i++) {
+				strings.add(shifts[i].toString());
+			}
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+}
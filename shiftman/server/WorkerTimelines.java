@@ -0,0 +1,228 @@
+package shiftman.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import shiftman.server.WeeklyRoster.Days;
+
+/**
+ * Holds each worker's timeline: every shift they are booked for in either role, across the whole
+ * week. Each shift is held once however many times the worker is booked for it, and is told apart
+ * from other shifts by identity rather than by its times, so two shifts with the same times are
+ * both held. Each shift is held as an interval of minutes since the start of the week, and the
+ * starts, ends and shifts of a worker are kept in parallel arrays sorted by start as shifts are
+ * added.
+ *
+ * <p>Alongside each entry is the index of the entry ending latest among it and those before it, so
+ * a booking can be tested for overlaps by binary search even when a restored roster already holds
+ * overlapping shifts, and the whole week can be scanned for overlaps in one pass per worker.
+ * Overlaps follow TimePeriod.testOverlap: shifts whose times only touch overlap. Within a day,
+ * addShift already refuses overlapping shifts, so the timelines only find overlaps once a worker
+ * can hold shifts which addShift did not compare, such as shifts on different positions.
+ *
+ * <p>The timelines are guarded by their own read/write lock, which is always acquired after any
+ * day's lock, so that assignments to different days may add to them at once.
+ */
+public class WorkerTimelines {
+	private int[][] _starts = new int[0][];
+	private int[][] _ends = new int[0][];
+	private int[][] _latest = new int[0][];
+	private Shift[][] _shifts = new Shift[0][];
+	private int[] _sizes = new int[0];
+	private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Acquires the write lock on behalf of a caller which adds several shifts as
+	 * one. Must be paired with unlockForWriting.
+	 */
+	public void lockForWriting() {
+		_lock.writeLock().lock();
+	}
+
+	/**
+	 * Releases the write lock acquired by lockForWriting.
+	 */
+	public void unlockForWriting() {
+		_lock.writeLock().unlock();
+	}
+
+	/**
+	 * Adds the provided shift on the provided day to the timeline of the worker
+	 * with the provided id, whether or not it overlaps shifts already there, as
+	 * when restoring a roster. Does nothing if the timeline already holds it.
+	 */
+	public void add(int workerId, Days day, Shift shift) {
+		_lock.writeLock().lock();
+		try {
+			int start = toWeekMinute(day, shift.getStartMinute());
+			int index = 0;
+			if (workerId < _sizes.length) {
+				int[] starts = _starts[workerId];
+				index = upperBound(starts, _sizes[workerId], start);
+				for (int i = index - 1; i >= 0 && starts[i] == start; i--) {
+					if (_shifts[workerId][i] == shift) {
+						return;
+					}
+				}
+			}
+			insert(workerId, index, start, toWeekMinute(day, shift.getEndMinute()), shift);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Books the provided shift on the provided day into the timeline of the
+	 * worker with the provided id, unless a different shift there overlaps it.
+	 * Returns the overlapping shift, or null if the shift was booked or was
+	 * already held.
+	 * 
+	 * <p>As in TimePeriod.testOverlap, shifts overlap unless one ends before the
+	 * other starts, so shifts which only touch overlap too. Of the shifts
+	 * starting earlier only the one ending latest needs to be tested, then any
+	 * other shift with the same start overlaps, and of those starting later only
+	 * the first needs to be tested. So testing and adding under one lock costs
+	 * one binary search of the timeline.
+	 */
+	public Shift book(int workerId, Days day, Shift shift) {
+		_lock.writeLock().lock();
+		try {
+			int start = toWeekMinute(day, shift.getStartMinute());
+			int end = toWeekMinute(day, shift.getEndMinute());
+			int index = 0;
+			if (workerId < _sizes.length && _sizes[workerId] > 0) {
+				int[] starts = _starts[workerId];
+				Shift[] shifts = _shifts[workerId];
+				int size = _sizes[workerId];
+				index = upperBound(starts, size, start - 1);
+				if (index > 0) {
+					int latest = _latest[workerId][index - 1];
+					if (_ends[workerId][latest] >= start) {
+						return shifts[latest];
+					}
+				}
+				boolean held = false;
+				for (; index < size && starts[index] == start; index++) {
+					if (shifts[index] != shift) {
+						return shifts[index];
+					}
+					held = true;
+				}
+				if (index < size && starts[index] <= end) {
+					return shifts[index];
+				}
+				if (held) {
+					return null;
+				}
+			}
+			insert(workerId, index, start, end, shift);
+			return null;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the provided minutes past midnight on the provided day as minutes
+	 * since the start of the week.
+	 */
+	private static int toWeekMinute(Days day, int minute) {
+		return day.ordinal() * WorkerSchedules.MINUTES_PER_DAY + minute;
+	}
+
+	/**
+	 * Returns the index of the first of the first size of the provided sorted
+	 * starts which is after the provided minute.
+	 */
+	private static int upperBound(int[] starts, int size, int minute) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] <= minute) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Inserts the provided shift, as an interval of week minutes, at the provided
+	 * index of the timeline of the worker with the provided id, which must be
+	 * after any entries with the same start. Must be called while holding the
+	 * write lock.
+	 */
+	private void insert(int workerId, int index, int start, int end, Shift shift) {
+		if (workerId >= _starts.length) {
+			int length = Math.max(workerId + 1, 2 * _starts.length);
+			_starts = Arrays.copyOf(_starts, length);
+			_ends = Arrays.copyOf(_ends, length);
+			_latest = Arrays.copyOf(_latest, length);
+			_shifts = Arrays.copyOf(_shifts, length);
+			_sizes = Arrays.copyOf(_sizes, length);
+		}
+		int[] starts = _starts[workerId];
+		int[] ends = _ends[workerId];
+		int[] latest = _latest[workerId];
+		Shift[] shifts = _shifts[workerId];
+		int size = _sizes[workerId];
+		if (starts == null) {
+			starts = new int[2];
+			ends = new int[2];
+			latest = new int[2];
+			shifts = new Shift[2];
+		} else if (size == starts.length) {
+			starts = Arrays.copyOf(starts, 2 * size);
+			ends = Arrays.copyOf(ends, 2 * size);
+			latest = Arrays.copyOf(latest, 2 * size);
+			shifts = Arrays.copyOf(shifts, 2 * size);
+		}
+		System.arraycopy(starts, index, starts, index + 1, size - index);
+		System.arraycopy(ends, index, ends, index + 1, size - index);
+		System.arraycopy(shifts, index, shifts, index + 1, size - index);
+		starts[index] = start;
+		ends[index] = end;
+		shifts[index] = shift;
+		size++;
+		for (int i = index; i < size; i++) {
+			latest[i] = i > 0 && ends[latest[i - 1]] >= ends[i] ? latest[i - 1] : i;
+		}
+		_starts[workerId] = starts;
+		_ends[workerId] = ends;
+		_latest[workerId] = latest;
+		_shifts[workerId] = shifts;
+		_sizes[workerId] = size;
+	}
+
+	/**
+	 * Appends a description of each overlap between shifts in the provided
+	 * worker's timeline to the provided list, in order of start time. Each shift
+	 * is tested against the shift which ends latest of those before it, using the
+	 * overlap rule of book, so the timeline is scanned once.
+	 */
+	public void addOverlaps(Worker worker, List<String> overlaps) {
+		_lock.readLock().lock();
+		try {
+			int workerId = worker.getId();
+			if (workerId < 0 || workerId >= _sizes.length) {
+				return;
+			}
+			int[] starts = _starts[workerId];
+			int[] ends = _ends[workerId];
+			int[] latest = _latest[workerId];
+			Shift[] shifts = _shifts[workerId];
+			for (int i = 1; i < _sizes[workerId]; i++) {
+				if (starts[i] <= ends[latest[i - 1]]) {
+					overlaps.add(worker.toString() + " is double-booked on " + shifts[latest[i - 1]].toString()
+							+ " and " + shifts[i].toString());
+				}
+			}
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+}
@@ -1,17 +1,28 @@
 package shiftman.server;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Represents a collection of Worker objects for encapsulation purposes. 
+ * Represents a collection of Worker objects for encapsulation purposes. Workers are kept in their
+ * natural order as they are added, so reading the collection never requires sorting it.
+ * 
+ * <p>Whether each worker has been assigned to a shift is held as a bit in a long[] word array,
+ * indexed by the worker's dense id, along with a count of assigned workers. Adding a worker never
+ * moves any bits, and a worker's bit is found without searching the staff list. Unassigned staff
+ * are listed, already sorted, by testing each worker's bit in staff list order.
  */
 public class Workers {
 	private List<Worker> _staff = new ArrayList<Worker>();
-	private Map<Worker, Boolean> _staffAssignments = new HashMap<Worker, Boolean>();
+	private long[] _staffAssignments = new long[1];
+	private Worker[] _staffById = new Worker[0];
+	private int _assignedCount = 0;
+	private int _nextId = 0;
+	private Map<Worker, Worker> _staffByName = new HashMap<Worker, Worker>();
+	private Map<String, Worker> _staffByFullName = new HashMap<String, Worker>();
 
 	/**
 	 * Creates a new Workers object
@@ -20,19 +31,62 @@ public class Workers {
 	}
 
 	/**
-	 * Creates a new worker and adds it to this collection of workers
+	 * Creates a new worker, with the next unused id, and adds it to this
+	 * collection of workers
 	 */
 	public void addWorker(String givenName, String familyName) {
-		_staff.add(new Worker(givenName, familyName));
-		_staffAssignments.put(_staff.get(_staff.size() - 1), false);
+		addWorker(new Worker(givenName, familyName, _nextId));
 	}
 
 	/**
 	 * Adds the provided worker to this collection of workers
 	 */
 	public void addWorker(Worker worker) {
-		_staff.add(worker);
-		_staffAssignments.put(_staff.get(_staff.size() - 1), false);
+		int index = insertionPoint(worker);
+		_staff.add(index, worker);
+		int id = worker.getId();
+		if (id >= _staffById.length) {
+			_staffById = Arrays.copyOf(_staffById, Math.max(id + 1, 2 * _staffById.length));
+		}
+		_staffById[id] = worker;
+		_nextId = Math.max(_nextId, worker.getId() + 1);
+		_staffByName.putIfAbsent(worker, worker);
+		_staffByFullName.putIfAbsent(worker.toString(), worker);
+	}
+
+	/**
+	 * Returns the index at which the provided worker should be inserted to keep
+	 * this collection sorted. Workers which compare equal keep the order in which
+	 * they were added.
+	 */
+	private int insertionPoint(Worker worker) {
+		int low = 0;
+		int high = _staff.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (_staff.get(mid).compareTo(worker) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns true if the provided worker is in this collection, found by its id.
+	 */
+	private boolean contains(Worker worker) {
+		int id = worker.getId();
+		return id >= 0 && id < _staffById.length && _staffById[id] == worker;
+	}
+
+	/**
+	 * Returns true if the assignment bit for the provided id is set.
+	 */
+	private boolean isAssignedId(int id) {
+		int word = id >>> 6;
+		return word < _staffAssignments.length && (_staffAssignments[word] & (1L << id)) != 0;
 	}
 
 	/**
@@ -40,12 +94,7 @@ public class Workers {
 	 * worker cannot be found.
 	 */
 	public Worker findWorker(String givenName, String familyName) {
-		for (Worker w : _staff) {
-			if (w.isWorker(givenName, familyName)) {
-				return w;
-			}
-		}
-		return null;
+		return _staffByName.get(new Worker(givenName, familyName));
 	}
 
 	/**
@@ -53,12 +102,7 @@ public class Workers {
 	 * worker cannot be found.
 	 */
 	public Worker findWorker(String fullName) {
-		for (Worker w : _staff) {
-			if (w.isWorker(fullName)) {
-				return w;
-			}
-		}
-		return null;
+		return _staffByFullName.get(fullName);
 	}
 
 	/**
@@ -66,7 +110,6 @@ public class Workers {
 	 * workers.
 	 */
 	public List<String> getStaff() {
-		Collections.sort(_staff);
 		List<String> staffList = new ArrayList<String>();
 		for (Worker w : _staff) {
 			staffList.add(w.toString());
@@ -74,12 +117,67 @@ public class Workers {
 		return staffList;
 	}
 
+	/**
+	 * Returns the id the next worker created by this collection will be given.
+	 * Every worker in this collection has a lower id.
+	 */
+	public int nextId() {
+		return _nextId;
+	}
+
+	/**
+	 * Returns the worker in this collection with the provided id, or null if
+	 * there is none.
+	 */
+	public Worker getWorker(int id) {
+		return id >= 0 && id < _staffById.length ? _staffById[id] : null;
+	}
+
+	/**
+	 * Returns a copy of the list of all workers in this collection, in their
+	 * natural order.
+	 */
+	public List<Worker> getWorkers() {
+		return new ArrayList<Worker>(_staff);
+	}
+
 	/**
 	 * Finds the worker with the provided name and sets them to be assigned
 	 * (assigned to a shift).
 	 */
 	public void setAssigned(String givenName, String familyName) {
-		_staffAssignments.put(findWorker(givenName, familyName), true);
+		setAssigned(findWorker(givenName, familyName));
+	}
+
+	/**
+	 * Sets the provided worker to be assigned (assigned to a shift).
+	 */
+	public void setAssigned(Worker worker) {
+		if (worker == null || !contains(worker) || isAssignedId(worker.getId())) {
+			return;
+		}
+		int id = worker.getId();
+		if (id >>> 6 >= _staffAssignments.length) {
+			_staffAssignments = Arrays.copyOf(_staffAssignments, Math.max((id >>> 6) + 1,
+					2 * _staffAssignments.length));
+		}
+		_staffAssignments[id >>> 6] |= 1L << id;
+		_assignedCount++;
+	}
+
+	/**
+	 * Returns true if the provided worker has been assigned to a shift.
+	 */
+	public boolean isAssigned(Worker worker) {
+		return contains(worker) && isAssignedId(worker.getId());
+	}
+
+	/**
+	 * Returns the number of workers in this collection which have not been
+	 * assigned to a shift.
+	 */
+	public int unassignedCount() {
+		return _staff.size() - _assignedCount;
 	}
 
 	/**
@@ -87,10 +185,9 @@ public class Workers {
 	 * collection.
 	 */
 	public List<String> getUnassignedStaff() {
-		Collections.sort(_staff);
-		List<String> unassignedStaffList = new ArrayList<String>();
+		List<String> unassignedStaffList = new ArrayList<String>(unassignedCount());
 		for (Worker w : _staff) {
-			if (!_staffAssignments.get(w)) {
+			if (!isAssignedId(w.getId())) {
 				unassignedStaffList.add(w.toString());
 			}
 		}
@@ -103,19 +200,26 @@ public class Workers {
 	 * worker2LastName ...].
 	 */
 	public String toList() {
-		String workerList;
-		Collections.sort(_staff);
+		StringBuilder builder = new StringBuilder();
+		appendList(builder);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the list of workers described by toList to the provided builder.
+	 */
+	public void appendList(StringBuilder builder) {
 		if (_staff.size() > 0) {
-			workerList = "[";
-			for (Worker w : _staff) {
-				workerList = workerList + w.toString();
-				workerList = workerList + ", ";
+			builder.append('[');
+			for (int i = 0; i < _staff.size(); i++) {
+				if (i > 0) {
+					builder.append(", ");
+				}
+				_staff.get(i).appendTo(builder);
 			}
-			workerList = workerList.substring(0, workerList.length() - 2);
-			workerList = workerList + "]";
+			builder.append(']');
 		} else {
-			workerList = "[No workers assigned]";
+			builder.append("[No workers assigned]");
 		}
-		return workerList;
 	}
 }